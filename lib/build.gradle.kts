@@ -19,6 +19,9 @@ dependencies {
     // Use JUnit test framework.
     testImplementation(libs.junit)
 
+    // Used to measure the memory footprint of the caches.
+    testImplementation(libs.jol.core)
+
     // This dependency is exported to consumers, that is to say found on their compile classpath.
     api(libs.commons.math3)
 
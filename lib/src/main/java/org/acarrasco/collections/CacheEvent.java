@@ -0,0 +1,37 @@
+package org.acarrasco.collections;
+
+/**
+ * A change of the contents of a cache.
+ */
+public class CacheEvent<K, V> {
+
+    public enum Type {
+        LOAD, EVICTION, INVALIDATION
+    }
+
+    private final Type type;
+    private final K key;
+    private final V value;
+
+    public CacheEvent(Type type, K key, V value) {
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public K getKey() {
+        return key;
+    }
+
+    public V getValue() {
+        return value;
+    }
+
+    public String toString() {
+        return "CacheEvent(" + type + ", " + key + ", " + value + ")";
+    }
+}
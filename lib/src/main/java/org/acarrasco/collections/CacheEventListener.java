@@ -0,0 +1,36 @@
+package org.acarrasco.collections;
+
+/**
+ * Receives the changes of the contents of a cache.
+ * 
+ * The methods are invoked synchronously by the thread that changed the cache,
+ * often while holding its locks, so they should return as fast as possible.
+ */
+public interface CacheEventListener<K, V> {
+
+    /**
+     * A missing value was computed and stored in the cache.
+     */
+    default void onLoad(K key, V value) {
+    }
+
+    /**
+     * An entry was removed to make room for a new one.
+     */
+    default void onEviction(K key, V value) {
+    }
+
+    /**
+     * An entry was removed explicitly.
+     */
+    default void onInvalidation(K key, V value) {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> CacheEventListener<K, V> none() {
+        return (CacheEventListener<K, V>) NONE;
+    }
+
+    static final CacheEventListener<Object, Object> NONE = new CacheEventListener<>() {
+    };
+}
@@ -0,0 +1,165 @@
+package org.acarrasco.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes the events of one or more caches to reactive subscribers.
+ * 
+ * Events are put in a bounded buffer by the thread that changed the cache,
+ * and delivered from an executor, so a slow subscriber never slows down
+ * `apply`. The events that accumulate while a delivery is in progress are
+ * delivered together, in batches of up to `maxBatchSize` events. When a
+ * buffer is full the events are dropped and counted, rather than blocking.
+ */
+public class CacheEventPublisher<K, V> implements CacheEventListener<K, V>, Flow.Publisher<List<CacheEvent<K, V>>>,
+        AutoCloseable {
+
+    private final SubmissionPublisher<List<CacheEvent<K, V>>> publisher;
+
+    private final Executor executor;
+
+    /**
+     * The events that have not been handed to the subscribers yet.
+     */
+    private final ArrayBlockingQueue<CacheEvent<K, V>> pending;
+
+    private final int maxBatchSize;
+
+    /**
+     * Whether a task that delivers the pending events has been submitted.
+     */
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Delivers the events one by one from the common pool.
+     */
+    public CacheEventPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize(), 1);
+    }
+
+    /**
+     * @param executor       The executor that delivers the events.
+     * @param bufferCapacity The maximum number of events, and batches per
+     *                       subscriber, that are buffered.
+     * @param maxBatchSize   The maximum number of events delivered together.
+     */
+    public CacheEventPublisher(Executor executor, int bufferCapacity, int maxBatchSize) {
+        this.executor = executor;
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        this.pending = new ArrayBlockingQueue<>(bufferCapacity);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<CacheEvent<K, V>>> subscriber) {
+        this.publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void onLoad(K key, V value) {
+        publish(new CacheEvent<>(CacheEvent.Type.LOAD, key, value));
+    }
+
+    @Override
+    public void onEviction(K key, V value) {
+        publish(new CacheEvent<>(CacheEvent.Type.EVICTION, key, value));
+    }
+
+    @Override
+    public void onInvalidation(K key, V value) {
+        publish(new CacheEvent<>(CacheEvent.Type.INVALIDATION, key, value));
+    }
+
+    /**
+     * The number of events that were not delivered because a buffer was full,
+     * counted once per subscriber that missed them.
+     */
+    public long droppedEvents() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Delivers the pending events and completes the subscriptions. The events
+     * published concurrently with closing may not be delivered.
+     */
+    @Override
+    public synchronized void close() {
+        drain();
+        this.publisher.close();
+    }
+
+    private void publish(CacheEvent<K, V> event) {
+        if (this.publisher.isClosed() || !this.publisher.hasSubscribers()) {
+            return;
+        }
+        if (!this.pending.offer(event)) {
+            this.dropped.add(this.publisher.getNumberOfSubscribers());
+        }
+        if (this.draining.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    private void drainAndReschedule() {
+        drain();
+        this.draining.set(false);
+        // an event could have been added after draining but before clearing the flag
+        if (!this.pending.isEmpty() && this.draining.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+
+    /**
+     * Submits a drain, once `draining` has been set. If the executor doesn't
+     * take it, the flag is cleared so the next event submits it again, and
+     * the events stay pending meanwhile.
+     */
+    private void schedule() {
+        boolean submitted = false;
+        try {
+            this.executor.execute(this::drainAndReschedule);
+            submitted = true;
+        } catch (RejectedExecutionException e) {
+            // not thrown to the cache that published the event
+        } finally {
+            if (!submitted) {
+                this.draining.set(false);
+            }
+        }
+    }
+
+    /**
+     * Synchronized because `close` drains concurrently with the executor, and
+     * the batches must be offered in the order they were taken. A drain that
+     * was scheduled before closing but runs after it discards the events that
+     * were queued meanwhile, as they can't be offered anymore.
+     */
+    private synchronized void drain() {
+        if (this.publisher.isClosed()) {
+            this.pending.clear();
+            return;
+        }
+        while (true) {
+            final List<CacheEvent<K, V>> batch = new ArrayList<>(Math.min(this.maxBatchSize, this.pending.size()));
+            this.pending.drainTo(batch, this.maxBatchSize);
+            if (batch.isEmpty()) {
+                return;
+            }
+            this.publisher.offer(batch, (subscriber, dropped) -> {
+                this.dropped.add(dropped.size());
+                return false;
+            });
+        }
+    }
+}
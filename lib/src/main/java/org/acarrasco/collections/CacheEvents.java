@@ -0,0 +1,138 @@
+package org.acarrasco.collections;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The Flight Recorder events of the caches, to tell apart a latency spike
+ * caused by a slow load, by waiting for another thread's load, or by scanning.
+ *
+ * The events are only committed when the recording enables them and their
+ * duration is above the threshold, which can be changed in the recording
+ * settings. While they are disabled the JIT removes them, so the caches that
+ * don't allocate per get still don't. Evictions are disabled by default, as
+ * there is one per miss in a full cache.
+ */
+final class CacheEvents {
+
+    static final String LOAD = "org.acarrasco.collections.Load";
+    static final String WAIT = "org.acarrasco.collections.Wait";
+    static final String EVICTION = "org.acarrasco.collections.Eviction";
+    static final String SCAN = "org.acarrasco.collections.Scan";
+
+    private CacheEvents() {
+    }
+
+    @Name(LOAD)
+    @Label("Cache Load")
+    @Description("A missing value computed by the factory of a cache")
+    @Category({ "Collections", "Cache" })
+    @Threshold("10 ms")
+    static final class Load extends Event {
+        @Label("Cache")
+        String cache;
+
+        @Label("Key")
+        String key;
+
+        @Label("Failed")
+        @Description("The factory threw an exception")
+        boolean failed;
+    }
+
+    @Name(WAIT)
+    @Label("Cache Wait")
+    @Description("A thread waiting for the value of a key that another thread is loading")
+    @Category({ "Collections", "Cache" })
+    @Threshold("10 ms")
+    static final class Wait extends Event {
+        @Label("Cache")
+        String cache;
+
+        @Label("Key")
+        String key;
+    }
+
+    @Name(EVICTION)
+    @Label("Cache Eviction")
+    @Description("An entry removed to make room for another")
+    @Category({ "Collections", "Cache" })
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Eviction extends Event {
+        @Label("Cache")
+        String cache;
+
+        @Label("Key")
+        String key;
+    }
+
+    @Name(SCAN)
+    @Label("Cache Scan")
+    @Description("A scan of the slots of a LockFreeLRUCache while holding its lock")
+    @Category({ "Collections", "Cache" })
+    @Threshold("1 ms")
+    static final class Scan extends Event {
+        @Label("Cache")
+        String cache;
+
+        @Label("Slots")
+        int slots;
+    }
+
+    /**
+     * Commits a load event that was started with `begin`.
+     */
+    static void load(Load event, Object cache, Object key, boolean failed) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.cache = name(cache);
+            event.key = String.valueOf(key);
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits a wait event that was started with `begin`.
+     */
+    static void waited(Wait event, Object cache, Object key) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.cache = name(cache);
+            event.key = String.valueOf(key);
+            event.commit();
+        }
+    }
+
+    static void evicted(Object cache, Object key) {
+        final Eviction event = new Eviction();
+        if (event.shouldCommit()) {
+            event.cache = name(cache);
+            event.key = String.valueOf(key);
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits a scan event that was started with `begin`.
+     */
+    static void scanned(Scan event, Object cache, int slots) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.cache = name(cache);
+            event.slots = slots;
+            event.commit();
+        }
+    }
+
+    private static String name(Object cache) {
+        return cache.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(cache));
+    }
+}
@@ -0,0 +1,50 @@
+package org.acarrasco.collections;
+
+/**
+ * A snapshot of the usage statistics of a cache.
+ */
+public class CacheStats {
+    private final long requests;
+    private final long misses;
+    private final MissRatioCurve missRatioCurve;
+
+    public CacheStats(long requests, long misses, MissRatioCurve missRatioCurve) {
+        this.requests = requests;
+        this.misses = misses;
+        this.missRatioCurve = missRatioCurve;
+    }
+
+    /**
+     * The number of times a value was requested.
+     */
+    public long requests() {
+        return requests;
+    }
+
+    /**
+     * The number of times the missing value factory was invoked.
+     */
+    public long misses() {
+        return misses;
+    }
+
+    public long hits() {
+        return requests - misses;
+    }
+
+    public double hitRatio() {
+        return requests == 0 ? 0 : (double) hits() / requests;
+    }
+
+    /**
+     * The estimated miss ratio curve, or null if the cache does not sample
+     * reuse distances.
+     */
+    public MissRatioCurve missRatioCurve() {
+        return missRatioCurve;
+    }
+
+    public String toString() {
+        return "CacheStats(requests=" + requests + ", misses=" + misses + ", hitRatio=" + hitRatio() + ")";
+    }
+}
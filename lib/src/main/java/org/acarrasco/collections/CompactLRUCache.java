@@ -0,0 +1,443 @@
+package org.acarrasco.collections;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+
+/**
+ * A LRU cache like {@link SynchronizedLRUCache}, that stores the entries in
+ * parallel arrays instead of objects, to reduce the memory used per entry when
+ * the keys and values are small.
+ *
+ * Each entry is a slot with its key, value, key hash and the indices of the
+ * previous and next slots in the order of last access. The slots are found
+ * through an open addressed table of slot indices with linear probing, kept
+ * at most half full, so an entry takes 28 bytes with compressed pointers
+ * instead of the ~100 of the entry, the list node and the hash map node.
+ *
+ * Missing values are computed without holding the lock, like in
+ * {@link SynchronizedLRUCache}.
+ *
+ * Keys can't be null.
+ */
+public class CompactLRUCache<K, V> implements ReadThroughCache<K, V> {
+
+    private static final int NONE = -1;
+
+    /**
+     * The function that will compute or fetch a value that is not in the cache.
+     */
+    private final Function<K, V> missingValueFactory;
+
+    /**
+     * The maximum number of elements this cache can hold. While shrinking it
+     * can be less than the number of slots.
+     */
+    private int capacity;
+
+    private int size;
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+
+    /**
+     * The links of the order of last access. The free slots are linked through
+     * `next`.
+     */
+    private int[] previous;
+    private int[] next;
+
+    /**
+     * The least and most recent slots.
+     */
+    private int head = NONE;
+    private int tail = NONE;
+
+    /**
+     * The first free slot.
+     */
+    private int free;
+
+    /**
+     * The slot index plus one of each key, or 0 if empty. Its length is a
+     * power of two.
+     */
+    private int[] table;
+
+    /**
+     * The keys whose value is being computed, which are not in the cache yet.
+     */
+    private final HashMap<K, PendingLoad<V>> loads = new HashMap<>();
+
+    private CacheEventListener<K, V> listener = CacheEventListener.none();
+
+    /**
+     * Serializes the calls to `setMaximumSize`, which release the monitor
+     * between batches of evictions.
+     */
+    private final Object resizeLock = new Object();
+
+    /**
+     * The maximum number of evictions done by `setMaximumSize` before letting
+     * other threads use the cache.
+     */
+    private static final int EVICTION_BATCH = 64;
+
+    /**
+     * @param capacity            The maximum number of elements this cache can
+     *                            hold.
+     * @param missingValueFactory The function that will compute missing values.
+     */
+    public CompactLRUCache(int capacity, Function<K, V> missingValueFactory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.missingValueFactory = missingValueFactory;
+        rebuild(capacity);
+    }
+
+    @Override
+    public V apply(K key) {
+        final int hash = hash(key);
+        PendingLoad<V> load;
+        while (true) {
+            final boolean invalidated;
+            synchronized (this) {
+                final int slot = find(key, hash);
+                if (slot != NONE) {
+                    return hit(slot);
+                }
+                load = this.loads.get(key);
+                if (load == null) {
+                    load = new PendingLoad<>();
+                    this.loads.put(key, load);
+                    break;
+                }
+                invalidated = load.invalidated;
+            }
+            final CacheEvents.Wait waitEvent = new CacheEvents.Wait();
+            waitEvent.begin();
+            if (!invalidated) {
+                final V value = load.await();
+                CacheEvents.waited(waitEvent, this, key);
+                return value;
+            }
+            // the key can't be computed twice at the same time
+            load.awaitDone();
+            CacheEvents.waited(waitEvent, this, key);
+        }
+
+        final V value;
+        final CacheEvents.Load loadEvent = new CacheEvents.Load();
+        loadEvent.begin();
+        try {
+            value = this.missingValueFactory.apply(key);
+        } catch (RuntimeException | Error e) {
+            CacheEvents.load(loadEvent, this, key, true);
+            synchronized (this) {
+                this.loads.remove(key);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        CacheEvents.load(loadEvent, this, key, false);
+
+        synchronized (this) {
+            this.loads.remove(key);
+            if (!load.invalidated) {
+                add(key, hash, value);
+            }
+        }
+        load.complete(value);
+        return value;
+    }
+
+    private void add(K key, int hash, V value) {
+        if (this.size >= this.capacity) {
+            evict();
+        }
+        this.listener.onLoad(key, value);
+
+        final int slot = this.free;
+        this.free = this.next[slot];
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        this.hashes[slot] = hash;
+        linkLast(slot);
+        insert(slot);
+        this.size++;
+    }
+
+    @Override
+    public synchronized V getIfPresent(K key) {
+        final int slot = find(key, hash(key));
+        if (slot == NONE) {
+            return null;
+        }
+        return hit(slot);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized boolean invalidate(K key) {
+        final PendingLoad<V> load = this.loads.get(key);
+        if (load != null) {
+            // the threads already waiting for it still get the value
+            load.invalidated = true;
+            return true;
+        }
+        final int slot = find(key, hash(key));
+        if (slot == NONE) {
+            return false;
+        }
+        final V value = (V) this.values[slot];
+        remove(slot);
+        this.listener.onInvalidation(key, value);
+        return true;
+    }
+
+    @Override
+    public synchronized void setEventListener(CacheEventListener<K, V> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized int maximumSize() {
+        return this.capacity;
+    }
+
+    /**
+     * The arrays are reallocated once the entries fit in them, which also
+     * moves the entries to the first slots in order of last access.
+     */
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum size " + maximumSize);
+        }
+        synchronized (this.resizeLock) {
+            synchronized (this) {
+                // from now on misses evict instead of taking free slots, growing
+                // waits until the arrays are reallocated
+                this.capacity = Math.min(this.capacity, maximumSize);
+            }
+            // the loads in flight are not entries yet, so every step evicts
+            // a batch and this never waits for them, it only lets the
+            // threads blocked on the monitor in between
+            while (!shrinkStep(maximumSize)) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Evicts a batch of entries, and reallocates the arrays once they fit.
+     *
+     * @return true if the arrays have been reallocated.
+     */
+    private synchronized boolean shrinkStep(int capacity) {
+        for (int i = 0; i < EVICTION_BATCH && this.size > capacity; i++) {
+            evict();
+        }
+        if (this.size > capacity) {
+            return false;
+        }
+        rebuild(capacity);
+        this.capacity = capacity;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V hit(int slot) {
+        if (slot != this.tail) {
+            unlink(slot);
+            linkLast(slot);
+        }
+        return (V) this.values[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void evict() {
+        final int slot = this.head;
+        final K key = (K) this.keys[slot];
+        final V value = (V) this.values[slot];
+        remove(slot);
+        CacheEvents.evicted(this, key);
+        this.listener.onEviction(key, value);
+    }
+
+    /**
+     * Removes the entry of a slot and frees it.
+     */
+    private void remove(int slot) {
+        delete(slot);
+        unlink(slot);
+        this.keys[slot] = null;
+        this.values[slot] = null;
+        this.next[slot] = this.free;
+        this.free = slot;
+        this.size--;
+    }
+
+    private void linkLast(int slot) {
+        this.previous[slot] = this.tail;
+        this.next[slot] = NONE;
+        if (this.tail == NONE) {
+            this.head = slot;
+        } else {
+            this.next[this.tail] = slot;
+        }
+        this.tail = slot;
+    }
+
+    private void unlink(int slot) {
+        final int previous = this.previous[slot];
+        final int next = this.next[slot];
+        if (previous == NONE) {
+            this.head = next;
+        } else {
+            this.next[previous] = next;
+        }
+        if (next == NONE) {
+            this.tail = previous;
+        } else {
+            this.previous[next] = previous;
+        }
+    }
+
+    /**
+     * The slot of a key, or NONE.
+     */
+    private int find(Object key, int hash) {
+        final int mask = this.table.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            final int slot = this.table[i] - 1;
+            if (slot == NONE) {
+                return NONE;
+            }
+            if (this.hashes[slot] == hash && key.equals(this.keys[slot])) {
+                return slot;
+            }
+        }
+    }
+
+    private void insert(int slot) {
+        final int mask = this.table.length - 1;
+        int i = this.hashes[slot] & mask;
+        while (this.table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        this.table[i] = slot + 1;
+    }
+
+    /**
+     * Removes a slot from the table, moving back the following ones of the
+     * same run that can't be found past the hole, so no tombstones are needed.
+     */
+    private void delete(int slot) {
+        final int mask = this.table.length - 1;
+        int hole = this.hashes[slot] & mask;
+        while (this.table[hole] != slot + 1) {
+            hole = (hole + 1) & mask;
+        }
+        for (int i = (hole + 1) & mask; this.table[i] != 0; i = (i + 1) & mask) {
+            final int home = this.hashes[this.table[i] - 1] & mask;
+            // it can move if the hole is between its home bucket and it
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                this.table[hole] = this.table[i];
+                hole = i;
+            }
+        }
+        this.table[hole] = 0;
+    }
+
+    /**
+     * Reallocates the arrays for a number of slots, which must fit the
+     * entries.
+     */
+    private void rebuild(int slots) {
+        final Object[] keys = new Object[slots];
+        final Object[] values = new Object[slots];
+        final int[] hashes = new int[slots];
+        final int[] previous = new int[slots];
+        final int[] next = new int[slots];
+        int count = 0;
+        for (int slot = this.head; slot != NONE; slot = this.next[slot]) {
+            keys[count] = this.keys[slot];
+            values[count] = this.values[slot];
+            hashes[count] = this.hashes[slot];
+            previous[count] = count - 1;
+            next[count] = count + 1;
+            count++;
+        }
+        for (int slot = count; slot < slots; slot++) {
+            next[slot] = slot + 1 < slots ? slot + 1 : NONE;
+        }
+        this.keys = keys;
+        this.values = values;
+        this.hashes = hashes;
+        this.previous = previous;
+        this.next = next;
+        this.head = count > 0 ? 0 : NONE;
+        this.tail = count - 1;
+        if (count > 0) {
+            next[count - 1] = NONE;
+        }
+        this.free = count < slots ? count : NONE;
+        this.table = new int[Integer.highestOneBit(slots * 2 - 1) << 1];
+        for (int slot = 0; slot < count; slot++) {
+            insert(slot);
+        }
+    }
+
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Iterates over copies of the entries, like the spliterator, as the slots
+     * are moved when the cache is resized.
+     */
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Splits by slot range. Each entry is copied while holding the lock, so it
+     * is safe to use concurrently with `apply`.
+     */
+    @Override
+    public synchronized Spliterator<Entry<K, V>> spliterator() {
+        return new EntrySpliterator(0, this.keys.length);
+    }
+
+    private class EntrySpliterator extends IndexSpliterator<Entry<K, V>> {
+
+        EntrySpliterator(int from, int to) {
+            super(from, to);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Entry<K, V> get(int idx) {
+            synchronized (CompactLRUCache.this) {
+                // the arrays could have been reallocated since the split
+                if (idx >= keys.length || keys[idx] == null) {
+                    return null;
+                }
+                return new Entry<>((K) keys[idx], (V) values[idx]);
+            }
+        }
+
+        @Override
+        IndexSpliterator<Entry<K, V>> split(int from, int to) {
+            return new EntrySpliterator(from, to);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package org.acarrasco.collections;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A cache whose entries expire some time after they were loaded, or after
+ * they were last read.
+ *
+ * The deadlines are tracked in a single {@link TimerWheel}, fed by the events
+ * of the wrapped cache, so wrapping a {@link MappedCache} shares the wheel
+ * among all its buckets. The events don't take the lock of the wheel, they
+ * are queued and applied in a batch when the wheel is advanced, at most once
+ * per millisecond, either by the threads that read the cache or by a
+ * scheduler.
+ *
+ * Reads don't touch the wheel: they only record the access time, and when a
+ * timer fires before the entry is due it's scheduled again. An expired entry
+ * is never returned, even if its timer hasn't fired yet.
+ *
+ * Expired entries are removed with {@link #invalidate}, so listeners see them
+ * as invalidations.
+ */
+public class ExpiringCache<K, V> implements ReadThroughCache<K, V>, AutoCloseable {
+
+    private class Node extends TimerWheel.Timer<K> {
+        final long writeTime;
+        volatile long accessTime;
+
+        /**
+         * Set when the entry leaves the wrapped cache, so the queued events
+         * of the node don't schedule it.
+         */
+        volatile boolean removed;
+
+        Node(K key, long now) {
+            super(key);
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+
+        long expirationTime() {
+            final long afterWrite = expireAfterWrite < 0 ? Long.MAX_VALUE : this.writeTime + expireAfterWrite;
+            final long afterAccess = expireAfterAccess < 0 ? Long.MAX_VALUE : this.accessTime + expireAfterAccess;
+            return Math.min(afterWrite, afterAccess);
+        }
+
+        boolean isExpired(long now) {
+            return now - expirationTime() >= 0;
+        }
+    }
+
+    private final ReadThroughCache<K, V> cache;
+
+    /**
+     * In nanoseconds, negative if disabled.
+     */
+    private final long expireAfterWrite;
+    private final long expireAfterAccess;
+
+    private final LongSupplier ticker;
+
+    private final ConcurrentHashMap<K, Node> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the wheel.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The nodes loaded or removed since the last advance, which are scheduled
+     * or descheduled by the next one.
+     */
+    private final ConcurrentLinkedQueue<Node> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    private final TimerWheel<K> wheel;
+
+    /**
+     * The time of the last advance of the wheel, to skip the lock when it was
+     * advanced less than a millisecond ago.
+     */
+    private volatile long lastCleanUp;
+
+    /**
+     * The periodic clean up, null if it's done by the readers.
+     */
+    private final ScheduledFuture<?> cleanUpTask;
+
+    private volatile CacheEventListener<K, V> listener = CacheEventListener.none();
+
+    private static final long CLEAN_UP_PERIOD = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Expires the entries using the system clock, advancing the wheel on
+     * reads.
+     *
+     * @param capacity            The capacity of the wrapped cache.
+     * @param missingValueFactory The function that will compute missing values.
+     * @param cacheFactory        The function that will build the wrapped cache.
+     * @param expireAfterWrite    How long entries live after being loaded, or
+     *                            null to not expire them after loading.
+     * @param expireAfterAccess   How long entries live after being read, or
+     *                            null to not expire them after reading.
+     */
+    public ExpiringCache(int capacity, Function<K, V> missingValueFactory, ReadThroughCacheFactory cacheFactory,
+            Duration expireAfterWrite, Duration expireAfterAccess) {
+        this(capacity, missingValueFactory, cacheFactory, expireAfterWrite, expireAfterAccess, System::nanoTime,
+                null);
+    }
+
+    /**
+     * @param ticker    The source of the time in nanoseconds.
+     * @param scheduler The scheduler that will advance the wheel every
+     *                  millisecond, or null to advance it on reads.
+     */
+    public ExpiringCache(int capacity, Function<K, V> missingValueFactory, ReadThroughCacheFactory cacheFactory,
+            Duration expireAfterWrite, Duration expireAfterAccess, LongSupplier ticker,
+            ScheduledExecutorService scheduler) {
+        this.expireAfterWrite = expireAfterWrite == null ? -1 : expireAfterWrite.toNanos();
+        this.expireAfterAccess = expireAfterAccess == null ? -1 : expireAfterAccess.toNanos();
+        this.ticker = ticker;
+        final long now = ticker.getAsLong();
+        this.wheel = new TimerWheel<>(now);
+        this.lastCleanUp = now;
+        this.cache = cacheFactory.build(capacity, missingValueFactory);
+        this.cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onLoad(K key, V value) {
+                loaded(key);
+                listener.onLoad(key, value);
+            }
+
+            @Override
+            public void onEviction(K key, V value) {
+                removed(key);
+                listener.onEviction(key, value);
+            }
+
+            @Override
+            public void onInvalidation(K key, V value) {
+                removed(key);
+                listener.onInvalidation(key, value);
+            }
+        });
+        this.cleanUpTask = scheduler == null ? null
+                : scheduler.scheduleWithFixedDelay(this::cleanUp, CLEAN_UP_PERIOD, CLEAN_UP_PERIOD,
+                        TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public V apply(K key) {
+        V value = this.cache.apply(key);
+        final long now = this.ticker.getAsLong();
+        if (expired(key, now)) {
+            // the new value is returned even if it expires right away
+            value = this.cache.apply(key);
+        }
+        maybeCleanUp(now);
+        return value;
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        final V value = this.cache.getIfPresent(key);
+        final long now = this.ticker.getAsLong();
+        if (value == null || expired(key, now)) {
+            return null;
+        }
+        maybeCleanUp(now);
+        return value;
+    }
+
+    @Override
+    public boolean invalidate(K key) {
+        final boolean found = this.cache.invalidate(key);
+        // applies the queued events even if the cache is not read
+        maybeCleanUp(this.ticker.getAsLong());
+        return found;
+    }
+
+    @Override
+    public void setEventListener(CacheEventListener<K, V> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public int maximumSize() {
+        return this.cache.maximumSize();
+    }
+
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        this.cache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Removes the entries that have expired.
+     */
+    public void cleanUp() {
+        cleanUp(true);
+    }
+
+    /**
+     * Stops the periodic clean up.
+     */
+    @Override
+    public void close() {
+        if (this.cleanUpTask != null) {
+            this.cleanUpTask.cancel(false);
+        }
+    }
+
+    /**
+     * Skips the expired entries that haven't been removed yet.
+     */
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        final long now = this.ticker.getAsLong();
+        return this.cache.stream().filter((entry) -> {
+            final Node node = this.nodes.get(entry.getKey());
+            return node == null || !node.isExpired(now);
+        }).spliterator();
+    }
+
+    /**
+     * Checks if the entry of the key has expired, recording the access if it
+     * hasn't. Expired entries are invalidated.
+     */
+    private boolean expired(K key, long now) {
+        final Node node = this.nodes.get(key);
+        if (node == null) {
+            // evicted after being read
+            return false;
+        }
+        if (!node.isExpired(now)) {
+            if (this.expireAfterAccess >= 0) {
+                node.accessTime = now;
+            }
+            return false;
+        }
+        expire(node, now);
+        return true;
+    }
+
+    private void expire(Node node, long now) {
+        // the key could have been loaded again after the node was read, then
+        // the fresh value is removed too, which is only a spurious miss
+        if (this.nodes.get(node.key) == node && node.isExpired(now)) {
+            this.cache.invalidate(node.key);
+        }
+    }
+
+    /**
+     * Called by the wrapped cache, possibly while holding its locks, so the
+     * wheel is only updated by the next clean up.
+     */
+    private void loaded(K key) {
+        final Node node = new Node(key, this.ticker.getAsLong());
+        final Node previous = this.nodes.put(key, node);
+        if (previous != null) {
+            previous.removed = true;
+            this.pendingEvents.add(previous);
+        }
+        this.pendingEvents.add(node);
+    }
+
+    private void removed(K key) {
+        final Node node = this.nodes.remove(key);
+        if (node != null) {
+            node.removed = true;
+            this.pendingEvents.add(node);
+        }
+    }
+
+    /**
+     * Applies the queued events to the wheel, while holding its lock. A node
+     * is scheduled once, by the event of its load, unless it was removed
+     * before.
+     */
+    private void drainEvents() {
+        Node node;
+        while ((node = this.pendingEvents.poll()) != null) {
+            if (node.removed) {
+                this.wheel.deschedule(node);
+            } else if (!node.isScheduled()) {
+                this.wheel.schedule(node, node.expirationTime());
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel if it wasn't advanced in the last millisecond and
+     * nobody else is doing it. Only used when there is no scheduler.
+     */
+    private void maybeCleanUp(long now) {
+        if (this.cleanUpTask == null && now - this.lastCleanUp >= CLEAN_UP_PERIOD) {
+            cleanUp(false);
+        }
+    }
+
+    /**
+     * The expired entries are invalidated after releasing the lock of the
+     * wheel, as the events of the wrapped cache take it while holding the
+     * locks of the wrapped cache.
+     */
+    @SuppressWarnings("unchecked")
+    private void cleanUp(boolean wait) {
+        if (wait) {
+            this.lock.lock();
+        } else if (!this.lock.tryLock()) {
+            return;
+        }
+        final long now = this.ticker.getAsLong();
+        final List<Node> expired = new ArrayList<>();
+        try {
+            this.lastCleanUp = now;
+            drainEvents();
+            this.wheel.advance(now, (timer) -> {
+                final Node node = (Node) timer;
+                if (node.isExpired(now)) {
+                    expired.add(node);
+                } else {
+                    // read since it was scheduled
+                    this.wheel.schedule(node, node.expirationTime());
+                }
+            });
+        } finally {
+            this.lock.unlock();
+        }
+        for (Node node : expired) {
+            expire(node, now);
+        }
+    }
+}
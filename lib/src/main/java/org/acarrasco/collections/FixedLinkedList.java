@@ -10,13 +10,15 @@ import java.util.Iterator;
 public class FixedLinkedList<T> implements Iterable<T> {
     
     class Node {
-        private final int idx;
+        private int idx;
         private int previous;
         private int next;
         public T value;
 
         public Node(int idx) {
             this.idx = idx;
+            this.previous = -1;
+            this.next = -1;
         }
 
         public Node getNext() {
@@ -27,6 +29,13 @@ public class FixedLinkedList<T> implements Iterable<T> {
             return nodes[previous];
         }
 
+        /**
+         * The list this node belongs to.
+         */
+        FixedLinkedList<T> list() {
+            return FixedLinkedList.this;
+        }
+
         public void remove() {
             size--;
             if (head == this.idx) {
@@ -56,8 +65,8 @@ public class FixedLinkedList<T> implements Iterable<T> {
         }
     }
 
-    private final Node[] nodes;
-    private final int[] freeIndices;
+    private Node[] nodes;
+    private int[] freeIndices;
     private int size = 0;
     private int head = -1;
 
@@ -79,6 +88,76 @@ public class FixedLinkedList<T> implements Iterable<T> {
         return this.nodes.length;
     }
 
+    /**
+     * Changes the maximum number of elements. When shrinking, the nodes beyond
+     * the new capacity are moved to free indices, so the nodes returned by
+     * `add` remain valid, but indices are not stable across a resize.
+     *
+     * @throws IllegalStateException if the list has more elements than the new
+     *                               capacity.
+     */
+    @SuppressWarnings("unchecked")
+    public void resize(int capacity) {
+        if (this.size > capacity) {
+            throw new IllegalStateException("Can't fit " + this.size + " elements in " + capacity);
+        }
+        final int oldCapacity = this.nodes.length;
+        if (capacity < oldCapacity) {
+            compact(capacity);
+        }
+        final Node[] newNodes = new FixedLinkedList.Node[capacity];
+        final int[] newFreeIndices = new int[capacity];
+        System.arraycopy(this.nodes, 0, newNodes, 0, Math.min(capacity, oldCapacity));
+        for (int i = oldCapacity; i < capacity; i++) {
+            newNodes[i] = new Node(i);
+        }
+        // the free indices go after the ones in use, as if they had been removed
+        int free = this.size;
+        for (int i = 0; i < capacity; i++) {
+            if (!isLinked(newNodes[i])) {
+                newFreeIndices[free++] = i;
+            }
+        }
+        this.nodes = newNodes;
+        this.freeIndices = newFreeIndices;
+    }
+
+    /**
+     * Moves the nodes with an index beyond the capacity to free indices below
+     * it.
+     */
+    private void compact(int capacity) {
+        int free = 0;
+        for (int i = capacity; i < this.nodes.length; i++) {
+            final Node node = this.nodes[i];
+            if (!isLinked(node)) {
+                continue;
+            }
+            while (isLinked(this.nodes[free])) {
+                free++;
+            }
+            final Node unused = this.nodes[free];
+            // a single node points to itself
+            final int previous = node.previous == i ? free : node.previous;
+            final int next = node.next == i ? free : node.next;
+            this.nodes[free] = node;
+            this.nodes[i] = unused;
+            unused.idx = i;
+            node.idx = free;
+            node.previous = previous;
+            node.next = next;
+            this.nodes[previous].next = free;
+            this.nodes[next].previous = free;
+            if (this.head == i) {
+                this.head = free;
+            }
+        }
+    }
+
+    private boolean isLinked(Node node) {
+        return node.next >= 0;
+    }
+
     /**
      * The number of elements present in the list.
      */
@@ -86,6 +165,14 @@ public class FixedLinkedList<T> implements Iterable<T> {
         return this.size;
     }
 
+    /**
+     * The element stored in the node with the given index, or null if the node
+     * is not in use. Indices are stable while an element stays in the list.
+     */
+    T get(int idx) {
+        return this.nodes[idx].value;
+    }
+
     /**
      * The first element of the list.
      */
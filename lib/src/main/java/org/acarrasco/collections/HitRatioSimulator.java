@@ -0,0 +1,175 @@
+package org.acarrasco.collections;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Replays a trace of keys against several cache policies and capacities, to
+ * find out the hit ratio that each configuration would achieve before it is
+ * deployed.
+ *
+ * The simulation is single-threaded and the missing value factory only counts
+ * the misses, so there are no factory delays. The trace is consumed as a
+ * stream: every key is applied to all the simulated caches and then discarded,
+ * so the trace can be much bigger than the available memory.
+ */
+public class HitRatioSimulator<K> {
+
+    /**
+     * The outcome of replaying the trace against one policy with one capacity.
+     */
+    public class Simulation implements Function<K, K> {
+        private final String policy;
+        private final int capacity;
+        private final ReadThroughCache<K, K> cache;
+        private long misses = 0;
+
+        Simulation(String policy, int capacity, ReadThroughCacheFactory cacheFactory) {
+            this.policy = policy;
+            this.capacity = capacity;
+            this.cache = cacheFactory.build(capacity, this);
+        }
+
+        /**
+         * Invoked by the simulated cache on a miss, the value is the key itself.
+         */
+        @Override
+        public K apply(K key) {
+            misses++;
+            return key;
+        }
+
+        public String policy() {
+            return policy;
+        }
+
+        public int capacity() {
+            return capacity;
+        }
+
+        public long misses() {
+            return misses;
+        }
+
+        public long hits() {
+            return requests - misses;
+        }
+
+        public double hitRatio() {
+            return requests == 0 ? 0 : (double) hits() / requests;
+        }
+    }
+
+    private final List<Simulation> simulations = new ArrayList<>();
+
+    /**
+     * The number of keys replayed so far.
+     */
+    private long requests = 0;
+
+    /**
+     * @param policies   The caches to simulate, by name.
+     * @param capacities The capacities to simulate for every policy.
+     */
+    public HitRatioSimulator(Map<String, ReadThroughCacheFactory> policies, int... capacities) {
+        for (Map.Entry<String, ReadThroughCacheFactory> policy : policies.entrySet()) {
+            for (int capacity : capacities) {
+                this.simulations.add(new Simulation(policy.getKey(), capacity, policy.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Replays a single access of the trace.
+     */
+    public void access(K key) {
+        requests++;
+        for (Simulation simulation : this.simulations) {
+            simulation.cache.apply(key);
+        }
+    }
+
+    /**
+     * Replays all the remaining accesses of the trace.
+     */
+    public void run(Iterator<K> trace) {
+        while (trace.hasNext()) {
+            access(trace.next());
+        }
+    }
+
+    public long requests() {
+        return requests;
+    }
+
+    public List<Simulation> simulations() {
+        return simulations;
+    }
+
+    /**
+     * Prints the hit-ratio-vs-capacity curve of every policy as tab separated
+     * values.
+     */
+    public void print(PrintStream out) {
+        out.println("type\tcapacity\trequests\thits\thitRatio");
+        for (Simulation simulation : this.simulations) {
+            out.println(simulation.policy + "\t" + simulation.capacity + "\t" + requests + "\t"
+                    + simulation.hits() + "\t" + simulation.hitRatio());
+        }
+    }
+
+    /**
+     * The policies that are simulated when none is specified.
+     */
+    public static Map<String, ReadThroughCacheFactory> defaultPolicies() {
+        final Map<String, ReadThroughCacheFactory> policies = new LinkedHashMap<>();
+        policies.put("lockfree", LockFreeLRUCache::new);
+        policies.put("synchronized", SynchronizedLRUCache::new);
+        policies.put("segmented", SynchronizedLRUCache.segmented(0.8));
+        policies.put("mapped", MappedCache.factory(16, SynchronizedLRUCache::new));
+        return policies;
+    }
+
+    /**
+     * Usage: `HitRatioSimulator <trace file, or - for stdin> [capacity...]`
+     *
+     * The trace is a text file with one integer key per line.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: HitRatioSimulator <trace file | -> [capacity...]");
+            System.exit(1);
+        }
+        int[] capacities;
+        if (args.length > 1) {
+            capacities = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                capacities[i - 1] = Integer.parseInt(args[i]);
+            }
+        } else {
+            capacities = new int[] { 64, 512, 4096, 32768 };
+        }
+
+        final HitRatioSimulator<Long> simulator = new HitRatioSimulator<>(defaultPolicies(), capacities);
+        final Reader source = "-".equals(args[0]) ? new InputStreamReader(System.in) : new FileReader(args[0]);
+        try (BufferedReader reader = new BufferedReader(source, 1 << 16)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    simulator.access(Long.parseLong(line.trim()));
+                }
+            }
+        }
+        simulator.print(System.out);
+    }
+}
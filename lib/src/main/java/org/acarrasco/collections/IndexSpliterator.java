@@ -0,0 +1,62 @@
+package org.acarrasco.collections;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over the slots of an array-backed cache, that splits by index
+ * range. Empty slots are skipped, so the size is only an upper bound.
+ */
+abstract class IndexSpliterator<T> implements Spliterator<T> {
+
+    private int from;
+    private final int to;
+
+    IndexSpliterator(int from, int to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * The element at the index, or null if the slot is empty.
+     */
+    abstract T get(int idx);
+
+    /**
+     * A spliterator over a sub range of the same slots.
+     */
+    abstract IndexSpliterator<T> split(int from, int to);
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (this.from < this.to) {
+            final T element = get(this.from++);
+            if (element != null) {
+                action.accept(element);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        final int mid = (this.from + this.to) >>> 1;
+        if (mid <= this.from) {
+            return null;
+        }
+        final IndexSpliterator<T> prefix = split(this.from, mid);
+        this.from = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.to - this.from;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | CONCURRENT;
+    }
+}
@@ -0,0 +1,97 @@
+package org.acarrasco.collections;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A cache that keeps usage statistics of another cache.
+ *
+ * Optionally it also samples the reuse distances of the keys, so it can
+ * estimate the hit ratio the cache would have with a different capacity.
+ */
+public class InstrumentedCache<K, V> implements ReadThroughCache<K, V> {
+
+    private final ReadThroughCache<K, V> cache;
+
+    /**
+     * The reuse distance sampler, null if the curve is not estimated.
+     */
+    private final ReuseDistanceSampler<K> sampler;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity            The capacity of the instrumented cache.
+     * @param missingValueFactory The function that will compute missing values.
+     * @param cacheFactory        The function that will build the instrumented
+     *                            cache.
+     * @param sampler             The reuse distance sampler, or null to not
+     *                            estimate the miss ratio curve.
+     */
+    public InstrumentedCache(int capacity, Function<K, V> missingValueFactory, ReadThroughCacheFactory cacheFactory,
+            ReuseDistanceSampler<K> sampler) {
+        this.sampler = sampler;
+        this.cache = cacheFactory.build(capacity, (key) -> {
+            misses.increment();
+            return missingValueFactory.apply(key);
+        });
+    }
+
+    @Override
+    public V apply(K key) {
+        this.requests.increment();
+        if (this.sampler != null) {
+            this.sampler.access(key);
+        }
+        return this.cache.apply(key);
+    }
+
+    /**
+     * Looking up a key without computing it is not counted as a request.
+     */
+    @Override
+    public V getIfPresent(K key) {
+        return this.cache.getIfPresent(key);
+    }
+
+    @Override
+    public boolean invalidate(K key) {
+        return this.cache.invalidate(key);
+    }
+
+    @Override
+    public void setEventListener(CacheEventListener<K, V> listener) {
+        this.cache.setEventListener(listener);
+    }
+
+    @Override
+    public int maximumSize() {
+        return this.cache.maximumSize();
+    }
+
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        this.cache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * The statistics of the cache since it was built.
+     */
+    public CacheStats stats() {
+        return new CacheStats(this.requests.sum(), this.misses.sum(),
+                this.sampler == null ? null : this.sampler.curve());
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return this.cache.iterator();
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return this.cache.spliterator();
+    }
+}
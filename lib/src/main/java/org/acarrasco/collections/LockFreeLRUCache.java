@@ -1,10 +1,16 @@
 package org.acarrasco.collections;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
 /**
  * An implementation of a LRU cache that is efficient for small capacity,
@@ -12,24 +18,69 @@ import java.util.Iterator;
  * 
  * Evicting and adding new elements uses locks to avoid computing the same
  * value more than necessary if two concurrent calls attempt to fetch the
- * same missing key.
+ * same missing key. The threads waiting for a key wait on a
+ * {@link PendingLoad} of its slot without holding the lock, created by the
+ * first of them so the loads nobody waits for don't allocate. The load only
+ * wakes up its own waiters, which get the value without scanning the table
+ * again, and virtual threads don't pin their carrier while waiting.
  * 
  * It uses sequential scans rather than a tree or a hashmap. The rationale
  * behind it is that for small collections simpler is usually faster, and
  * each container cell being independent of each other allows for better
  * parallelism.
+ * 
+ * Each slot is kept in three parallel arrays that are written in place, so
+ * neither hits nor misses allocate. The tick of a slot doubles as a sequence
+ * lock: every change first replaces it with a negative marker and publishes
+ * a new tick when it is done, so a reader that sees the same non negative
+ * tick before and after reading the key and value has read a consistent
+ * pair.
+ * 
+ * Loads, waits for the loads of other threads, evictions and the scans done
+ * while holding the lock are reported as Flight Recorder events, see
+ * {@link CacheEvents}.
+ * 
+ * The arrays are replaced when the cache is resized. The slots of the old
+ * arrays are marked as moved, so the threads that are still scanning them
+ * fall back to the locked path, which uses the new ones.
  */
 public class LockFreeLRUCache<K, V> implements ReadThroughCache<K, V> {
 
-    class TickEntry extends Entry<K, V> {
+    private static final VarHandle TICKS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle OBJECTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    /**
+     * The storage of the slots.
+     */
+    private static final class Table {
+        /**
+         * When was the element of each slot last accessed, or one of the
+         * special values below.
+         */
+        final long[] ticks;
+
+        /**
+         * Keys and values of each slot, only written while holding the lock.
+         */
+        final Object[] keys;
+        final Object[] values;
+
         /**
-         * Represent when was the element last accessed.
+         * The loads of the slots that are being updated, if another thread is
+         * waiting for them. Only accessed while holding the lock.
          */
-        final long tick;
+        final Object[] loads;
 
-        public TickEntry(long tick, K key, V value) {
-            super(key, value);
-            this.tick = tick;
+        Table(int capacity) {
+            this.ticks = new long[capacity];
+            Arrays.fill(this.ticks, EMPTY);
+            this.keys = new Object[capacity];
+            this.values = new Object[capacity];
+            this.loads = new Object[capacity];
+        }
+
+        int capacity() {
+            return this.ticks.length;
         }
     }
 
@@ -39,9 +90,20 @@ public class LockFreeLRUCache<K, V> implements ReadThroughCache<K, V> {
     private final Function<K, V> missingValueFactory;
 
     /**
-     * Pairs of Key/Value that are present in the cache.
+     * Guards the keys and values of the table, and the fields below.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled, one thread at a time, when a slot can be claimed again, for
+     * the threads that found every slot being updated.
+     */
+    private final Condition slotReleased = this.lock.newCondition();
+
+    /**
+     * Only replaced while holding the lock.
      */
-    private final AtomicReferenceArray<TickEntry> entries;
+    private volatile Table table;
 
     /**
      * Each access will increase the internal tick, that will be used as a
@@ -49,28 +111,81 @@ public class LockFreeLRUCache<K, V> implements ReadThroughCache<K, V> {
      */
     private final AtomicLong tick = new AtomicLong(0);
 
-    private final int capacity;
+    /**
+     * The maximum number of entries, only accessed while holding the lock.
+     * While shrinking it is less than the capacity of the table.
+     */
+    private int maximumSize;
+
+    /**
+     * The number of slots that are not empty, only accessed while holding the
+     * lock.
+     */
+    private int size;
+
+    /**
+     * Only accessed while holding the lock.
+     */
+    private CacheEventListener<K, V> listener = CacheEventListener.none();
+
+    /**
+     * Serializes the calls to `setMaximumSize`, which release the lock between
+     * batches of evictions.
+     */
+    private final Object resizeLock = new Object();
+
+    /**
+     * The maximum number of evictions done by `setMaximumSize` before letting
+     * other threads use the cache.
+     */
+    private static final int EVICTION_BATCH = 16;
 
     /**
      * A special timestamp value to flag entries that are being updated.
      */
-    private static final int UPDATING = -1;
+    private static final long UPDATING = -1;
+
+    /**
+     * A special timestamp value to flag slots without an entry.
+     */
+    private static final long EMPTY = -2;
+
+    /**
+     * A special timestamp value to flag the slots of a table that has been
+     * replaced.
+     */
+    private static final long MOVED = -3;
+
+    /**
+     * Returned by `shrinkStep` when it has done a batch of evictions, so the
+     * next batch starts right away.
+     */
+    private static final PendingLoad<Object> NEXT_BATCH = new PendingLoad<>();
+
+    static {
+        NEXT_BATCH.complete(null);
+    }
+
+    /**
+     * Returned by `findAndUpdateTimestamp` when the key is not in the slot, as
+     * null is a valid value.
+     */
+    private static final Object ABSENT = new Object();
 
     /**
      * 
      * @param capacity            The maximum number of elements that this cache can
      *                            keep.
      * @param missingValueFactory The function that will compute missing values.
-     * @param timestampFactory    The function that will compute timestamps.
      */
     public LockFreeLRUCache(
             int capacity,
             Function<K, V> missingValueFactory) {
 
-        this.capacity = capacity;
+        this.maximumSize = capacity;
         this.missingValueFactory = missingValueFactory;
 
-        this.entries = new AtomicReferenceArray<>(capacity);
+        this.table = new Table(capacity);
     }
 
     /**
@@ -80,11 +195,13 @@ public class LockFreeLRUCache<K, V> implements ReadThroughCache<K, V> {
      * missing value factory and store it in the cache, potentially
      * evicting other key.
      */
+    @SuppressWarnings("unchecked")
     public V apply(K key) {
-        for (int i = 0; i < this.capacity; i++) {
-            TickEntry entry = findAndUpdateTimestamp(i, key);
-            if (entry != null) {
-                return entry.value;
+        final Table table = this.table;
+        for (int i = 0; i < table.capacity(); i++) {
+            final Object value = findAndUpdateTimestamp(table, i, key);
+            if (value != ABSENT) {
+                return (V) value;
             }
         }
 
@@ -95,98 +212,467 @@ public class LockFreeLRUCache<K, V> implements ReadThroughCache<K, V> {
         }
     }
 
-    private TickEntry findAndUpdateTimestamp(int idx, K key) {
-        boolean success = false;
-        TickEntry oldEntry;
-        long newTimestamp;
-        do {
-            oldEntry = this.entries.get(idx);
-            if (oldEntry == null) {
-                return null;
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getIfPresent(K key) {
+        while (true) {
+            final Table table = this.table;
+            for (int i = 0; i < table.capacity(); i++) {
+                final Object value = findAndUpdateTimestamp(table, i, key);
+                if (value != ABSENT) {
+                    return (V) value;
+                }
             }
-            if (oldEntry.tick == UPDATING) {
+            if (table == this.table) {
                 return null;
             }
-            if (!key.equals(oldEntry.key)) {
-                return null;
+            // resized while scanning, the key could have been moved
+        }
+    }
+
+    private Object findAndUpdateTimestamp(Table table, int idx, K key) {
+        while (true) {
+            final long oldTick = (long) TICKS.getAcquire(table.ticks, idx);
+            if (oldTick < 0) {
+                // empty, updating or moved
+                return ABSENT;
+            }
+            final Object slotKey = OBJECTS.getOpaque(table.keys, idx);
+            final Object slotValue = OBJECTS.getOpaque(table.values, idx);
+            if (!key.equals(slotKey)) {
+                // a torn read can miss the key, addElement looks again under the lock
+                return ABSENT;
+            }
+            // the key and value were read before the CAS, so if the tick
+            // hasn't changed they belong to the same entry
+            if (TICKS.compareAndSet(table.ticks, idx, oldTick, this.tick.getAndIncrement())) {
+                return slotValue;
             }
-            newTimestamp = this.tick.getAndIncrement();
-            TickEntry newEntry = new TickEntry(newTimestamp, oldEntry.key, oldEntry.value);
-            success = this.entries.compareAndSet(idx, oldEntry, newEntry);
-        } while (!success);
-        return oldEntry;
+        }
     }
 
+    @SuppressWarnings("unchecked")
     private V addElement(K key) throws InterruptedException {
-        int placementIdx;
-
-        synchronized (this) {
-            // we always have to check if the element exists because it could
-            // have been added before we entered the synchronized region
-            // do it while we look for the least recent element
-            int leastRecentIdx = 0;
-            long leastRecentTick = Long.MAX_VALUE;
-            int i;
-            for (i = 0; i < this.capacity; i++) {
-                final TickEntry entry = this.entries.get(i);
-                if (entry == null) {
-                    break;
+        while (true) {
+            Table table;
+            int placementIdx = -1;
+            PendingLoad<V> pending = null;
+
+            this.lock.lock();
+            try {
+                // we always have to check if the element exists because it could
+                // have been added before we took the lock
+                // do it while we look for an empty slot or the least recent element
+                // a thread woken up to claim a slot passes the turn on if it doesn't
+                boolean released = false;
+                scan: while (true) {
+                    final CacheEvents.Scan scanEvent = new CacheEvents.Scan();
+                    scanEvent.begin();
+                    table = this.table;
+                    int emptyIdx = -1;
+                    int leastRecentIdx = -1;
+                    long leastRecentTick = Long.MAX_VALUE;
+                    for (int i = 0; i < table.capacity(); i++) {
+                        // hits keep changing the ticks, but keys and values only
+                        // change while holding the lock
+                        final long entryTick = (long) TICKS.getOpaque(table.ticks, i);
+                        if (entryTick == EMPTY) {
+                            // invalidated entries leave holes, so keep looking for the key
+                            if (emptyIdx < 0) {
+                                emptyIdx = i;
+                            }
+                            continue;
+                        }
+                        boolean alreadyInCache = key.equals(table.keys[i]);
+
+                        if (alreadyInCache && entryTick == UPDATING) {
+                            if (released) {
+                                this.slotReleased.signal();
+                            }
+                            // wait for it without holding the lock
+                            pending = pendingLoad(table, i);
+                            break scan;
+                        } else if (alreadyInCache) {
+                            if (released) {
+                                this.slotReleased.signal();
+                            }
+                            final V value = (V) table.values[i];
+                            TICKS.setOpaque(table.ticks, i, this.tick.getAndIncrement());
+                            return value;
+                        } else if (entryTick != UPDATING && entryTick < leastRecentTick) {
+                            // entries that are being updated can't be evicted, their
+                            // owner is going to write the value in the same slot
+                            leastRecentIdx = i;
+                            leastRecentTick = entryTick;
+                        }
+                    }
+                    CacheEvents.scanned(scanEvent, this, table.capacity());
+                    // while shrinking there can be empty slots that can't be used
+                    if (emptyIdx >= 0 && this.size < this.maximumSize) {
+                        placementIdx = emptyIdx;
+                        this.size++;
+                        break;
+                    }
+                    if (leastRecentIdx >= 0) {
+                        placementIdx = leastRecentIdx;
+                        break;
+                    }
+                    // every slot is being updated by another thread
+                    final CacheEvents.Wait waitEvent = new CacheEvents.Wait();
+                    waitEvent.begin();
+                    this.slotReleased.await();
+                    CacheEvents.waited(waitEvent, this, key);
+                    released = true;
                 }
-                boolean alreadyInCache = key.equals(entry.key);
-
-                if (alreadyInCache && entry.tick == UPDATING) {
-                    this.wait();
-                    // we need to start over from the beginning...
-                    // the position of our key might have changed while we were waiting!
-                    i = 0;
-                    leastRecentIdx = 0;
-                    leastRecentTick = Long.MAX_VALUE;
-                } else if (alreadyInCache && entry.tick != UPDATING) {
-                    final TickEntry newEntry = new TickEntry(this.tick.getAndIncrement(), entry.key, entry.value);
-                    this.entries.set(i, newEntry);
-                    return newEntry.value;
-                } else if (entry.tick < leastRecentTick) {
-                    leastRecentIdx = i;
-                    leastRecentTick = entry.tick;
+                if (pending == null) {
+                    claim(table, placementIdx, key);
                 }
+            } finally {
+                this.lock.unlock();
             }
 
-            if (i < this.capacity) {
-                placementIdx = i;
-            } else {
-                placementIdx = leastRecentIdx;
+            if (pending == null) {
+                return load(key, table, placementIdx);
+            }
+            final CacheEvents.Wait waitEvent = new CacheEvents.Wait();
+            waitEvent.begin();
+            pending.awaitDone();
+            CacheEvents.waited(waitEvent, this, key);
+            if (!pending.isCompletedExceptionally()) {
+                return pending.getNow(null);
             }
-            // the `get` method won't check a key that is updating
-            // so a concurrent access will call addElement and
-            this.entries.set(placementIdx, new TickEntry(UPDATING, key, null));
+            // the load failed and the slot was released, try to load it again
         }
+    }
 
-        // this is a potentially slow operation, we can do it outside of the
-        // synchronized block because we have already "claimed" the spot
-        final V value = this.missingValueFactory.apply(key);
+    /**
+     * Marks a slot as being updated with a new key, evicting its entry. Must
+     * be called while holding the lock.
+     */
+    @SuppressWarnings("unchecked")
+    private void claim(Table table, int placementIdx, K key) {
+        // the `get` method won't check a key that is updating
+        // so a concurrent access will call addElement and wait for it
+        final long evictedTick = (long) TICKS.getAndSet(table.ticks, placementIdx, UPDATING);
+        // readers must see the marker before the new key
+        VarHandle.releaseFence();
+        final K evictedKey = (K) table.keys[placementIdx];
+        final V evictedValue = (V) table.values[placementIdx];
+        OBJECTS.setOpaque(table.keys, placementIdx, key);
+        OBJECTS.setOpaque(table.values, placementIdx, null);
+        if (evictedTick != EMPTY) {
+            CacheEvents.evicted(this, evictedKey);
+            this.listener.onEviction(evictedKey, evictedValue);
+        }
+    }
 
-        synchronized (this) {
-            this.entries.set(placementIdx, new TickEntry(this.tick.getAndIncrement(), key, value));
-            // notify other threads waiting for a value to be written
-            this.notifyAll();
+    /**
+     * Computes the value of a claimed slot and publishes it.
+     */
+    private V load(K key, Table table, int placementIdx) {
+        // this is a potentially slow operation, we can do it without holding
+        // the lock because we have already "claimed" the spot
+        final V value;
+        final CacheEvents.Load loadEvent = new CacheEvents.Load();
+        loadEvent.begin();
+        try {
+            value = this.missingValueFactory.apply(key);
+        } catch (RuntimeException | Error e) {
+            CacheEvents.load(loadEvent, this, key, true);
+            // release the spot, or the threads waiting for this key would never wake up
+            final PendingLoad<V> load;
+            this.lock.lock();
+            try {
+                final int idx = claimedSlot(table, placementIdx, key);
+                load = takeLoad(this.table, idx);
+                clear(this.table, idx);
+                this.slotReleased.signal();
+            } finally {
+                this.lock.unlock();
+            }
+            if (load != null) {
+                load.completeExceptionally(e);
+            }
+            throw e;
+        }
+        CacheEvents.load(loadEvent, this, key, false);
+
+        final PendingLoad<V> load;
+        this.lock.lock();
+        try {
+            final Table current = this.table;
+            final int idx = claimedSlot(table, placementIdx, key);
+            OBJECTS.setOpaque(current.values, idx, value);
+            // the release makes the value visible before the tick
+            TICKS.setRelease(current.ticks, idx, this.tick.getAndIncrement());
+            this.listener.onLoad(key, value);
+            load = takeLoad(current, idx);
+            this.slotReleased.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        // wake up the threads waiting for this key, and only them
+        if (load != null) {
+            load.complete(value);
         }
         return value;
     }
 
+    /**
+     * The load of a slot that is being updated, created by the first thread
+     * that waits for it. Must be called while holding the lock.
+     */
+    @SuppressWarnings("unchecked")
+    private PendingLoad<V> pendingLoad(Table table, int idx) {
+        PendingLoad<V> load = (PendingLoad<V>) table.loads[idx];
+        if (load == null) {
+            load = new PendingLoad<>();
+            table.loads[idx] = load;
+        }
+        return load;
+    }
+
+    /**
+     * Removes the load of a slot that is done updating, if anyone waited for
+     * it. Must be called while holding the lock.
+     */
+    @SuppressWarnings("unchecked")
+    private PendingLoad<V> takeLoad(Table table, int idx) {
+        final PendingLoad<V> load = (PendingLoad<V>) table.loads[idx];
+        table.loads[idx] = null;
+        return load;
+    }
+
+    /**
+     * The slot of the current table where the key is being computed, which
+     * is only different from the claimed one if the table was replaced. Must
+     * be called while holding the lock.
+     */
+    private int claimedSlot(Table claimed, int claimedIdx, K key) {
+        final Table table = this.table;
+        if (table == claimed) {
+            return claimedIdx;
+        }
+        for (int i = 0; i < table.capacity(); i++) {
+            if (table.ticks[i] == UPDATING && key.equals(table.keys[i])) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("The slot of " + key + " was lost while resizing");
+    }
+
+    /**
+     * Empties a slot, must be called while holding the lock.
+     */
+    private void clear(Table table, int idx) {
+        TICKS.setVolatile(table.ticks, idx, EMPTY);
+        VarHandle.releaseFence();
+        OBJECTS.setOpaque(table.keys, idx, null);
+        OBJECTS.setOpaque(table.values, idx, null);
+        this.size--;
+    }
+
+    /**
+     * Removes the key, if it is being computed it waits until it is done.
+     */
+    @SuppressWarnings("unchecked")
     @Override
-    public Iterator<Entry<K, V>> iterator() {
-        return new Iterator<Entry<K,V>>() {
-            private int i = 0;
+    public boolean invalidate(K key) {
+        while (true) {
+            PendingLoad<V> load = null;
+            this.lock.lock();
+            try {
+                final Table table = this.table;
+                for (int i = 0; i < table.capacity() && load == null; i++) {
+                    final long entryTick = (long) TICKS.getOpaque(table.ticks, i);
+                    if (entryTick == EMPTY || !key.equals(table.keys[i])) {
+                        continue;
+                    }
+                    if (entryTick == UPDATING) {
+                        load = pendingLoad(table, i);
+                        continue;
+                    }
+                    final K entryKey = (K) table.keys[i];
+                    final V entryValue = (V) table.values[i];
+                    clear(table, i);
+                    this.slotReleased.signal();
+                    this.listener.onInvalidation(entryKey, entryValue);
+                    return true;
+                }
+                if (load == null) {
+                    return false;
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            // the key could have been moved or evicted while we were waiting
+            load.awaitDone();
+        }
+    }
+
+    @Override
+    public void setEventListener(CacheEventListener<K, V> listener) {
+        this.lock.lock();
+        try {
+            this.listener = listener;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int maximumSize() {
+        this.lock.lock();
+        try {
+            return this.maximumSize;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Growing copies the slots to a bigger table. Shrinking evicts the least
+     * recent entries in batches, and copies the remaining ones to a smaller
+     * table once they fit. Each eviction scans the whole table, which is fine
+     * for the small capacities this cache is meant for.
+     */
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum size " + maximumSize);
+        }
+        synchronized (this.resizeLock) {
+            PendingLoad<V> blocker;
+            while ((blocker = shrinkStep(maximumSize)) != null) {
+                blocker.awaitDone();
+            }
+        }
+    }
 
-            @Override
-            public boolean hasNext() {
-                return i < capacity && entries.get(i) != null;
+    /**
+     * Evicts a batch of entries, and replaces the table once they fit.
+     *
+     * @return null if the table has been replaced, otherwise what to wait
+     *         for before the next batch: the load of a slot if all the
+     *         remaining entries are being computed, or an already completed
+     *         load if the batch is over.
+     */
+    @SuppressWarnings("unchecked")
+    private PendingLoad<V> shrinkStep(int maximumSize) {
+        this.lock.lock();
+        try {
+            // from now on misses evict instead of taking empty slots
+            this.maximumSize = maximumSize;
+            final Table table = this.table;
+            for (int evictions = 0; this.size > maximumSize; evictions++) {
+                if (evictions == EVICTION_BATCH) {
+                    return (PendingLoad<V>) NEXT_BATCH;
+                }
+                int leastRecentIdx = -1;
+                int updatingIdx = -1;
+                long leastRecentTick = Long.MAX_VALUE;
+                for (int i = 0; i < table.capacity(); i++) {
+                    final long entryTick = (long) TICKS.getOpaque(table.ticks, i);
+                    if (entryTick >= 0 && entryTick < leastRecentTick) {
+                        leastRecentIdx = i;
+                        leastRecentTick = entryTick;
+                    } else if (entryTick == UPDATING) {
+                        updatingIdx = i;
+                    }
+                }
+                if (leastRecentIdx < 0) {
+                    // the remaining entries are being computed, their slots
+                    // can't be evicted until they are done
+                    return pendingLoad(table, updatingIdx);
+                }
+                final K key = (K) table.keys[leastRecentIdx];
+                final V value = (V) table.values[leastRecentIdx];
+                clear(table, leastRecentIdx);
+                CacheEvents.evicted(this, key);
+                this.listener.onEviction(key, value);
             }
+            if (table.capacity() != maximumSize) {
+                this.table = copy(table, maximumSize);
+                // the threads waiting to claim a slot must look in the new table
+                this.slotReleased.signalAll();
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
 
-            @Override
-            public Entry<K, V> next() {
-                return entries.get(i++);
+    /**
+     * Copies the slots that are not empty to a new table, and marks the old
+     * ones as moved. Must be called while holding the lock.
+     */
+    private static Table copy(Table table, int capacity) {
+        final Table copy = new Table(capacity);
+        int j = 0;
+        for (int i = 0; i < table.capacity(); i++) {
+            // the last tick set by a hit is kept, later hits fail
+            final long entryTick = (long) TICKS.getAndSet(table.ticks, i, MOVED);
+            if (entryTick == EMPTY) {
+                continue;
             }
-        };
+            copy.ticks[j] = entryTick;
+            copy.keys[j] = table.keys[i];
+            copy.values[j] = table.values[i];
+            copy.loads[j] = table.loads[i];
+            j++;
+        }
+        return copy;
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Splits by index range, skipping empty slots and entries that are still
+     * being computed. The entries of a table that is replaced while iterating
+     * are not seen.
+     */
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        final Table table = this.table;
+        return new EntrySpliterator(table, 0, table.capacity());
+    }
+
+    private class EntrySpliterator extends IndexSpliterator<Entry<K, V>> {
+
+        private final Table table;
+
+        EntrySpliterator(Table table, int from, int to) {
+            super(from, to);
+            this.table = table;
+        }
+
+        /**
+         * Copies the entry of a slot, the only allocation of this class.
+         */
+        @SuppressWarnings("unchecked")
+        @Override
+        Entry<K, V> get(int idx) {
+            while (true) {
+                final long before = (long) TICKS.getAcquire(this.table.ticks, idx);
+                if (before < 0) {
+                    return null;
+                }
+                final Object key = OBJECTS.getOpaque(this.table.keys, idx);
+                final Object value = OBJECTS.getOpaque(this.table.values, idx);
+                VarHandle.acquireFence();
+                final long after = (long) TICKS.getOpaque(this.table.ticks, idx);
+                if (before == after) {
+                    return new Entry<>((K) key, (V) value);
+                }
+            }
+        }
+
+        @Override
+        IndexSpliterator<Entry<K, V>> split(int from, int to) {
+            return new EntrySpliterator(this.table, from, to);
+        }
     }
 }
@@ -1,45 +1,523 @@
 package org.acarrasco.collections;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class MappedCache<K, V> implements ReadThroughCache<K, V> {
 
-    private final ReadThroughCache<K, V>[] buckets;
+    private volatile ReadThroughCache<K, V>[] buckets;
+
+    /**
+     * The buckets before the last change of the number of buckets, while
+     * their entries are being moved to the new ones, otherwise null.
+     */
+    private volatile ReadThroughCache<K, V>[] previousBuckets;
+
+    /**
+     * The next previous bucket to move entries from, only accessed by the
+     * thread that set `migrating`.
+     */
+    private int migrationCursor;
+
+    private final AtomicBoolean migrating = new AtomicBoolean(false);
+
+    private volatile int bucketCapacity;
+
+    private final Function<K, V> missingValueFactory;
+
+    private final ReadThroughCacheFactory cacheFactory;
+
+    /**
+     * The listener set on all the buckets, null if none was set. It is
+     * wrapped in a {@link MoveFilter}.
+     */
+    private volatile CacheEventListener<K, V> listener;
+
+    /**
+     * The keys being loaded by any bucket, current or previous, so a key is
+     * never computed by two buckets at the same time. A load is only
+     * completed once its bucket has stored the value.
+     */
+    private final ConcurrentHashMap<K, PendingLoad<V>> loads = new ConcurrentHashMap<>();
+
+    /**
+     * What this thread is doing in the bucket it is reading.
+     */
+    private final ThreadLocal<Access<K, V>> access = ThreadLocal.withInitial(Access::new);
+
+    /**
+     * The number of previous buckets visited by each access while migrating.
+     */
+    private static final int MIGRATIONS_PER_ACCESS = 2;
 
     @SuppressWarnings("unchecked")
     public MappedCache(int buckets, int bucketCapacity, Function<K, V> missingValueFactory,
             ReadThroughCacheFactory cacheFactory) {
 
+        this.bucketCapacity = bucketCapacity;
+        this.missingValueFactory = missingValueFactory;
+        this.cacheFactory = cacheFactory;
         this.buckets = new ReadThroughCache[buckets];
         for (int i = 0; i < buckets; i++) {
-            this.buckets[i] = cacheFactory.build(bucketCapacity, missingValueFactory);
+            final ReadThroughCache<K, V>[] own = this.buckets;
+            this.buckets[i] = cacheFactory.build(bucketCapacity, (key) -> load(own, null, key));
         }
     }
 
+    /**
+     * A factory of mapped caches, so they can be used wherever a single cache is
+     * expected. The requested capacity is split evenly between the buckets.
+     */
+    public static ReadThroughCacheFactory factory(int buckets, ReadThroughCacheFactory bucketFactory) {
+        return new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                return new MappedCache<>(buckets, Math.max(1, capacity / buckets), missingValueFactory,
+                        bucketFactory);
+            }
+        };
+    }
+
     @Override
     public V apply(K key) {
-        final int bucket = key.hashCode() % this.buckets.length;
-        return this.buckets[bucket].apply(key);
+        while (true) {
+            final ReadThroughCache<K, V>[] buckets = this.buckets;
+            final ReadThroughCache<K, V> bucket = bucket(buckets, key);
+            final V value;
+            try {
+                value = bucket.apply(key);
+            } catch (StaleBucketException e) {
+                continue;
+            }
+            read(buckets, bucket, key, value);
+            if (this.previousBuckets != null) {
+                migrate();
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        final V value = bucket(this.buckets, key).getIfPresent(key);
+        final ReadThroughCache<K, V>[] previous = this.previousBuckets;
+        return value != null || previous == null ? value : bucket(previous, key).getIfPresent(key);
+    }
+
+    @Override
+    public boolean invalidate(K key) {
+        // the current bucket first, see `moveOnMiss`
+        boolean found = bucket(this.buckets, key).invalidate(key);
+        final ReadThroughCache<K, V>[] previous = this.previousBuckets;
+        if (previous != null) {
+            found |= bucket(previous, key).invalidate(key);
+        }
+        return found;
+    }
+
+    /**
+     * Sets the same listener on all the buckets.
+     */
+    @Override
+    public synchronized void setEventListener(CacheEventListener<K, V> listener) {
+        final CacheEventListener<K, V> filter = new MoveFilter(listener);
+        for (ReadThroughCache<K, V> bucket : this.buckets) {
+            bucket.setEventListener(filter);
+        }
+        final ReadThroughCache<K, V>[] previous = this.previousBuckets;
+        if (previous != null) {
+            for (ReadThroughCache<K, V> bucket : previous) {
+                bucket.setEventListener(filter);
+            }
+        }
+        // once every bucket clears the moves, see `read`
+        this.listener = filter;
+    }
+
+    @Override
+    public synchronized int maximumSize() {
+        return this.bucketCapacity * this.buckets.length;
+    }
+
+    /**
+     * Splits the new maximum size evenly between the buckets, and resizes them
+     * one after the other.
+     */
+    @Override
+    public synchronized void setMaximumSize(int maximumSize) {
+        finishMigration();
+        this.bucketCapacity = Math.max(1, maximumSize / this.buckets.length);
+        for (ReadThroughCache<K, V> bucket : this.buckets) {
+            bucket.setMaximumSize(this.bucketCapacity);
+        }
+    }
+
+    /**
+     * Changes the number of buckets, each one with the current bucket
+     * capacity, so adding buckets also adds capacity.
+     *
+     * The entries are not rehashed at once: a key that misses its new bucket
+     * is moved from its previous bucket instead of being computed, and every
+     * access moves a few more entries until the previous buckets are empty.
+     * The listener doesn't see the moves, as the entries stay in the cache,
+     * and iterating while entries are being moved can see an entry twice.
+     * Until they are moved, the entries of the previous buckets are held on
+     * top of the capacity of the new ones.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void setBucketCount(int bucketCount) {
+        finishMigration();
+        final ReadThroughCache<K, V>[] previous = this.buckets;
+        final ReadThroughCache<K, V>[] buckets = new ReadThroughCache[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = this.cacheFactory.build(this.bucketCapacity, (key) -> load(buckets, previous, key));
+            if (this.listener != null) {
+                buckets[i].setEventListener(this.listener);
+            }
+        }
+        // readers that see the new buckets must also see the previous ones
+        this.migrationCursor = 0;
+        this.previousBuckets = previous;
+        this.buckets = buckets;
+    }
+
+    /**
+     * The number of buckets.
+     */
+    public int bucketCount() {
+        return this.buckets.length;
+    }
+
+    /**
+     * The missing value factory of the buckets `own`, `previous` being the
+     * buckets they replaced, if any.
+     *
+     * A bucket only knows about its own loads, and a thread can still be
+     * reading a bucket that has been replaced, so the key is registered in
+     * `loads` and a thread that finds it there waits for that load, in
+     * whatever bucket, to be stored. Then it is moved like any other entry.
+     * A replaced bucket doesn't load anything: its thread reads the key again
+     * from the current buckets.
+     */
+    private V load(ReadThroughCache<K, V>[] own, ReadThroughCache<K, V>[] previous, K key) {
+        final PendingLoad<V> load = new PendingLoad<>();
+        if (this.loads.putIfAbsent(key, load) != null || own != this.buckets) {
+            register(own, key, load);
+        }
+        final V value;
+        try {
+            value = moveOnMiss(previous, key);
+        } catch (RuntimeException | Error e) {
+            this.loads.remove(key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+        // after the factory, which may read other keys from this cache
+        this.access.get().load = load;
+        return value;
+    }
+
+    /**
+     * The slow path of `load`: waits until `load` is registered, unless the
+     * buckets have been replaced.
+     */
+    private void register(ReadThroughCache<K, V>[] own, K key, PendingLoad<V> load) {
+        while (true) {
+            if (own != this.buckets) {
+                if (this.loads.remove(key, load)) {
+                    load.complete(null);
+                }
+                throw StaleBucketException.INSTANCE;
+            }
+            final PendingLoad<V> other = this.loads.putIfAbsent(key, load);
+            if (other == null) {
+                return;
+            }
+            other.awaitDone();
+        }
+    }
+
+    /**
+     * Takes the entry of the key from its previous bucket, if any, otherwise
+     * computes it.
+     *
+     * The entry is only taken from the previous bucket if this thread removes
+     * it: an invalidation that removes it first has already gone through the
+     * new bucket, or is waiting for this computation there.
+     */
+    private V moveOnMiss(ReadThroughCache<K, V>[] previous, K key) {
+        if (previous != null && this.previousBuckets == previous) {
+            final ReadThroughCache<K, V> bucket = bucket(previous, key);
+            final V value = bucket.getIfPresent(key);
+            if (value != null) {
+                // until the new bucket stores it, see MoveFilter
+                final Access<K, V> access = this.access.get();
+                access.moving = key;
+                if (bucket.invalidate(key)) {
+                    return value;
+                }
+                access.moving = null;
+            }
+        }
+        return this.missingValueFactory.apply(key);
+    }
+
+    /**
+     * Called once a thread has read a key from `bucket`, one of `buckets`.
+     */
+    private void read(ReadThroughCache<K, V>[] buckets, ReadThroughCache<K, V> bucket, K key, V value) {
+        final Access<K, V> access = this.access.get();
+        final PendingLoad<V> load = access.load;
+        if (load != null) {
+            // before anything that can wait for a load in flight, as its thread may be waiting for this one
+            access.load = null;
+            this.loads.remove(key, load);
+            load.complete(value);
+        }
+        if (access.moving != null) {
+            // not stored, the key was invalidated while it was moved
+            access.moving = null;
+            final CacheEventListener<K, V> listener = this.listener;
+            if (listener != null) {
+                listener.onInvalidation(key, value);
+            }
+        }
+        if (buckets != this.buckets && buckets != this.previousBuckets) {
+            // loaded after the migration from these buckets ended
+            bucket.invalidate(key);
+        }
+    }
+
+    /**
+     * Moves a few entries from the previous buckets, unless another thread
+     * is already doing it.
+     */
+    @SuppressWarnings("unchecked")
+    private void migrate() {
+        if (!this.migrating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final ReadThroughCache<K, V>[] previous = this.previousBuckets;
+            final ReadThroughCache<K, V>[] buckets = this.buckets;
+            for (int i = 0; previous != null && i < MIGRATIONS_PER_ACCESS; i++) {
+                if (this.migrationCursor == previous.length) {
+                    this.previousBuckets = null;
+                    // stored by loads that ended after their bucket was visited
+                    for (ReadThroughCache<K, V> bucket : previous) {
+                        final List<K> keys = new ArrayList<>();
+                        bucket.forEach((entry) -> keys.add(entry.getKey()));
+                        for (K key : keys) {
+                            bucket.invalidate(key);
+                        }
+                    }
+                    return;
+                }
+                final ReadThroughCache<K, V> bucket = previous[this.migrationCursor];
+                final Entry<K, V>[] found = new Entry[1];
+                if (!bucket.spliterator().tryAdvance((entry) -> found[0] = entry)) {
+                    this.migrationCursor++;
+                    continue;
+                }
+                final K key = found[0].getKey();
+                final ReadThroughCache<K, V> target = bucket(buckets, key);
+                if (target.getIfPresent(key) != null) {
+                    // loaded in the new bucket while it was being computed in the previous one
+                    bucket.invalidate(key);
+                } else {
+                    read(buckets, target, key, target.apply(key));
+                }
+            }
+        } finally {
+            this.migrating.set(false);
+        }
+    }
+
+    /**
+     * Must be called while holding the monitor, so no new migration starts.
+     */
+    private void finishMigration() {
+        while (this.previousBuckets != null) {
+            migrate();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Hides the invalidation of an entry from its previous bucket and its
+     * load in the new one, both notified by the thread that moves it, so the
+     * listener only sees real changes. A move doesn't reset the write time of
+     * an ExpiringCache that wraps this cache.
+     */
+    private class MoveFilter implements CacheEventListener<K, V> {
+        private final CacheEventListener<K, V> listener;
+
+        MoveFilter(CacheEventListener<K, V> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onLoad(K key, V value) {
+            final Access<K, V> access = MappedCache.this.access.get();
+            if (key.equals(access.moving)) {
+                access.moving = null;
+                return;
+            }
+            this.listener.onLoad(key, value);
+        }
+
+        @Override
+        public void onEviction(K key, V value) {
+            this.listener.onEviction(key, value);
+        }
+
+        @Override
+        public void onInvalidation(K key, V value) {
+            if (!key.equals(MappedCache.this.access.get().moving)) {
+                this.listener.onInvalidation(key, value);
+            }
+        }
+    }
+
+    /**
+     * The state of the thread that is reading a bucket.
+     */
+    private static class Access<K, V> {
+        /**
+         * The key whose entry this thread is moving to its new bucket, so the
+         * listener doesn't see the move.
+         */
+        K moving;
+
+        /**
+         * The load registered by this thread, completed once the bucket has
+         * stored its value.
+         */
+        PendingLoad<V> load;
+    }
+
+    /**
+     * Thrown by the missing value factory of a bucket that has been replaced,
+     * so the thread reads the key again from the current buckets.
+     */
+    private static class StaleBucketException extends RuntimeException {
+        static final StaleBucketException INSTANCE = new StaleBucketException();
+
+        private StaleBucketException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static <K, V> ReadThroughCache<K, V> bucket(ReadThroughCache<K, V>[] buckets, K key) {
+        return buckets[Math.floorMod(key.hashCode(), buckets.length)];
+    }
+
+    /**
+     * The current buckets followed by the previous ones, if any.
+     */
+    @SuppressWarnings("unchecked")
+    private ReadThroughCache<K, V>[] allBuckets() {
+        final ReadThroughCache<K, V>[] buckets = this.buckets;
+        final ReadThroughCache<K, V>[] previous = this.previousBuckets;
+        if (previous == null) {
+            return buckets;
+        }
+        final ReadThroughCache<K, V>[] all = new ReadThroughCache[buckets.length + previous.length];
+        System.arraycopy(buckets, 0, all, 0, buckets.length);
+        System.arraycopy(previous, 0, all, buckets.length, previous.length);
+        return all;
     }
 
     @Override
     public Iterator<Entry<K, V>> iterator() {
-        return new Iterator<Entry<K,V>>() {
-            int bucket = 0;
-            Iterator<Entry<K, V>> bucketIterator = buckets[0].iterator();
-            @Override
-            public boolean hasNext() {
-                while (!bucketIterator.hasNext() && bucket + 1 < buckets.length) {
-                    bucket++;
-                    bucketIterator = buckets[bucket].iterator();
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Splits by ranges of buckets, and once a single bucket is left, by the
+     * spliterator of the bucket itself.
+     */
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        final ReadThroughCache<K, V>[] buckets = allBuckets();
+        return new BucketSpliterator(buckets, 0, buckets.length);
+    }
+
+    private class BucketSpliterator implements Spliterator<Entry<K, V>> {
+        private final ReadThroughCache<K, V>[] buckets;
+        private int from;
+        private int to;
+
+        /**
+         * The spliterator of the bucket being traversed, `from` is the next
+         * bucket after it.
+         */
+        private Spliterator<Entry<K, V>> current;
+
+        BucketSpliterator(ReadThroughCache<K, V>[] buckets, int from, int to) {
+            this.buckets = buckets;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+            while (true) {
+                if (this.current == null) {
+                    if (this.from >= this.to) {
+                        return false;
+                    }
+                    this.current = this.buckets[this.from++].spliterator();
+                }
+                if (this.current.tryAdvance(action)) {
+                    return true;
                 }
-                return bucketIterator.hasNext();
+                this.current = null;
             }
-            @Override
-            public Entry<K, V> next() {
-                return bucketIterator.next();
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Entry<K, V>> action) {
+            if (this.current != null) {
+                this.current.forEachRemaining(action);
+                this.current = null;
             }
-        };
+            while (this.from < this.to) {
+                this.buckets[this.from++].spliterator().forEachRemaining(action);
+            }
+        }
+
+        @Override
+        public Spliterator<Entry<K, V>> trySplit() {
+            if (this.to - this.from > 1) {
+                // split off the upper half, the bucket being traversed stays here
+                final int mid = (this.from + this.to) >>> 1;
+                final BucketSpliterator suffix = new BucketSpliterator(this.buckets, mid, this.to);
+                this.to = mid;
+                return suffix;
+            }
+            if (this.current == null && this.from < this.to) {
+                this.current = this.buckets[this.from++].spliterator();
+            }
+            return this.current == null ? null : this.current.trySplit();
+        }
+
+        @Override
+        public long estimateSize() {
+            final long remaining = (long) (this.to - this.from) * bucketCapacity;
+            return this.current == null ? remaining : remaining + this.current.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | CONCURRENT;
+        }
     }
 }
@@ -0,0 +1,308 @@
+package org.acarrasco.collections;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Shrinks the registered caches when the heap is running out, and lets them
+ * grow back when it's not, so they can be sized for the spare heap instead of
+ * for the worst case.
+ *
+ * The heap occupancy is watched with the usage and collection usage
+ * thresholds of the heap pools, and checked again after every garbage
+ * collection. Above the high watermark every cache sheds a fraction of its
+ * maximum size, which evicts its coldest entries. Below the low watermark
+ * every cache gets back the same fraction, up to the size it was registered
+ * with.
+ *
+ * The caches are resized with {@link ReadThroughCache#setMaximumSize} from a
+ * single background thread, so the reads are not affected, and they are held
+ * through weak references, so registering a cache doesn't keep it alive.
+ */
+public class MemoryPressureController implements AutoCloseable {
+
+    private static class Registration {
+        final WeakReference<ReadThroughCache<?, ?>> cache;
+
+        /**
+         * The maximum size when it was registered.
+         */
+        final int maximumSize;
+
+        Registration(ReadThroughCache<?, ?> cache) {
+            this.cache = new WeakReference<>(cache);
+            this.maximumSize = cache.maximumSize();
+        }
+    }
+
+    /**
+     * The thresholds of the heap pools before `start` changed them, restored
+     * by `close`.
+     */
+    private static class PoolThresholds {
+        final MemoryPoolMXBean pool;
+        final long usage;
+        final long collectionUsage;
+
+        PoolThresholds(MemoryPoolMXBean pool) {
+            this.pool = pool;
+            this.usage = pool.isUsageThresholdSupported() ? pool.getUsageThreshold() : 0;
+            this.collectionUsage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsageThreshold()
+                    : 0;
+        }
+
+        void restore() {
+            if (this.pool.isUsageThresholdSupported()) {
+                this.pool.setUsageThreshold(this.usage);
+            }
+            if (this.pool.isCollectionUsageThresholdSupported()) {
+                this.pool.setCollectionUsageThreshold(this.collectionUsage);
+            }
+        }
+    }
+
+    private final double shedFraction;
+    private final double highOccupancy;
+    private final double lowOccupancy;
+
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+        final Thread thread = new Thread(runnable, "memory-pressure-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+
+    private final List<PoolThresholds> previousThresholds = new ArrayList<>();
+
+    /**
+     * Set by `close`, after which the notifications still in flight are
+     * ignored.
+     */
+    private volatile boolean closed;
+
+    private final NotificationListener listener = this::handleNotification;
+
+    /**
+     * The last time the caches were shrunk, only accessed from the executor.
+     */
+    private long lastShed = System.nanoTime() - SHED_INTERVAL;
+
+    /**
+     * The minimum time between two consecutive sheds, so a burst of
+     * notifications doesn't empty the caches before the garbage collector
+     * has reclaimed the evicted entries.
+     */
+    private static final long SHED_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Sheds a quarter of the size above 85% of heap occupancy, and grows back
+     * below 60%.
+     */
+    public MemoryPressureController() {
+        this(0.25, 0.85, 0.6);
+    }
+
+    /**
+     * @param shedFraction  The fraction of the registered size that is
+     *                      removed or given back at once.
+     * @param highOccupancy The fraction of the heap above which the caches
+     *                      are shrunk.
+     * @param lowOccupancy  The fraction of the heap below which the caches
+     *                      grow back.
+     */
+    public MemoryPressureController(double shedFraction, double highOccupancy, double lowOccupancy) {
+        if (shedFraction <= 0 || shedFraction > 1 || lowOccupancy >= highOccupancy) {
+            throw new IllegalArgumentException("Invalid fractions");
+        }
+        this.shedFraction = shedFraction;
+        this.highOccupancy = highOccupancy;
+        this.lowOccupancy = lowOccupancy;
+    }
+
+    /**
+     * Starts watching the heap. Sets the usage thresholds of the heap pools
+     * that support them, which are shared by the whole JVM.
+     */
+    public synchronized void start() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            final long max = pool.getUsage().getMax();
+            if (pool.getType() != MemoryType.HEAP || max <= 0) {
+                continue;
+            }
+            this.previousThresholds.add(new PoolThresholds(pool));
+            final long threshold = (long) (max * this.highOccupancy);
+            if (pool.isUsageThresholdSupported()) {
+                pool.setUsageThreshold(threshold);
+            }
+            if (pool.isCollectionUsageThresholdSupported()) {
+                pool.setCollectionUsageThreshold(threshold);
+            }
+        }
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        addListener((NotificationEmitter) memory);
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                addListener((NotificationEmitter) collector);
+            }
+        }
+    }
+
+    private void addListener(NotificationEmitter emitter) {
+        emitter.addNotificationListener(this.listener, null, null);
+        this.emitters.add(emitter);
+    }
+
+    /**
+     * Starts controlling the size of a cache, whose current maximum size is
+     * the size it grows back to.
+     */
+    public void register(ReadThroughCache<?, ?> cache) {
+        this.registrations.add(new Registration(cache));
+    }
+
+    /**
+     * Stops controlling the size of a cache, and restores it.
+     */
+    public void unregister(ReadThroughCache<?, ?> cache) {
+        for (Registration registration : this.registrations) {
+            if (registration.cache.get() == cache) {
+                this.registrations.remove(registration);
+                cache.setMaximumSize(registration.maximumSize);
+            }
+        }
+    }
+
+    /**
+     * Removes a fraction of the registered size of every cache, down to a
+     * single entry.
+     */
+    public void shed() {
+        resize(-1);
+    }
+
+    /**
+     * Gives back a fraction of the registered size to every cache.
+     */
+    public void restore() {
+        resize(1);
+    }
+
+    private void resize(int direction) {
+        for (Registration registration : this.registrations) {
+            final ReadThroughCache<?, ?> cache = registration.cache.get();
+            if (cache == null) {
+                this.registrations.remove(registration);
+                continue;
+            }
+            final int step = Math.max(1, (int) Math.ceil(registration.maximumSize * this.shedFraction));
+            final int current = cache.maximumSize();
+            final int size = Math.max(1, Math.min(registration.maximumSize, current + direction * step));
+            if (size != current) {
+                cache.setMaximumSize(size);
+            }
+        }
+    }
+
+    /**
+     * The occupancy of the heap after the last collection of each pool, or
+     * the current one for pools that don't report it.
+     */
+    static double heapOccupancy() {
+        long used = 0;
+        long max = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || pool.getUsage().getMax() <= 0) {
+                continue;
+            }
+            final MemoryUsage usage = pool.getCollectionUsage() != null ? pool.getCollectionUsage()
+                    : pool.getUsage();
+            used += usage.getUsed();
+            max += pool.getUsage().getMax();
+        }
+        return max == 0 ? 0 : (double) used / max;
+    }
+
+    /**
+     * Runs on the threads of the MXBeans, so the work is handed to the
+     * executor.
+     */
+    void handleNotification(Notification notification, Object handback) {
+        final String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+            execute(this::shedIfDue);
+        } else if (com.sun.management.GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                .equals(type)) {
+            execute(() -> {
+                final double occupancy = heapOccupancy();
+                if (occupancy > this.highOccupancy) {
+                    shedIfDue();
+                } else if (occupancy < this.lowOccupancy) {
+                    restore();
+                }
+            });
+        }
+    }
+
+    private void execute(Runnable task) {
+        if (this.closed) {
+            return;
+        }
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // closed while the notification was being delivered
+        }
+    }
+
+    private void shedIfDue() {
+        final long now = System.nanoTime();
+        if (now - this.lastShed >= SHED_INTERVAL) {
+            this.lastShed = now;
+            shed();
+        }
+    }
+
+    /**
+     * Stops watching the heap, and restores the usage thresholds of the heap
+     * pools. The caches keep their current size.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        for (NotificationEmitter emitter : this.emitters) {
+            try {
+                emitter.removeNotificationListener(this.listener);
+            } catch (ListenerNotFoundException e) {
+                // never added
+            }
+        }
+        this.emitters.clear();
+        for (PoolThresholds thresholds : this.previousThresholds) {
+            thresholds.restore();
+        }
+        this.previousThresholds.clear();
+        this.executor.shutdown();
+    }
+}
@@ -0,0 +1,55 @@
+package org.acarrasco.collections;
+
+/**
+ * The estimated miss ratio of a cache as a function of its capacity.
+ */
+public class MissRatioCurve {
+
+    /**
+     * The distance, in cache entries, between two points of the curve.
+     */
+    private final int step;
+
+    /**
+     * The miss ratio at capacities 0, step, 2 * step, ...
+     */
+    private final double[] missRatios;
+
+    MissRatioCurve(int step, double[] missRatios) {
+        this.step = step;
+        this.missRatios = missRatios;
+    }
+
+    /**
+     * The estimated miss ratio of a cache with the given capacity, capacities
+     * between two points of the curve are rounded down.
+     */
+    public double missRatio(long capacity) {
+        return this.missRatios[(int) Math.min(capacity / this.step, this.missRatios.length - 1)];
+    }
+
+    public double hitRatio(long capacity) {
+        return 1 - missRatio(capacity);
+    }
+
+    /**
+     * The biggest capacity with an estimation, bigger capacities have the same
+     * miss ratio.
+     */
+    public long maxCapacity() {
+        return (long) this.step * (this.missRatios.length - 1);
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("MissRatioCurve([");
+        for (int i = 0; i < this.missRatios.length; i++) {
+            builder.append((long) i * this.step);
+            builder.append(": ");
+            builder.append(this.missRatios[i]);
+            builder.append(", ");
+        }
+        builder.append("])");
+        return builder.toString();
+    }
+}
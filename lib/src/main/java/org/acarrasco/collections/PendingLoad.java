@@ -0,0 +1,46 @@
+package org.acarrasco.collections;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The value of a key that is being computed outside the lock of a cache, so
+ * the threads that miss the same key wait for it instead of computing it
+ * again.
+ *
+ * Waiting parks the thread without holding any monitor, so it doesn't pin the
+ * carrier of a virtual thread.
+ */
+class PendingLoad<V> extends CompletableFuture<V> {
+
+    /**
+     * Set when the key is invalidated while loading, so the value is returned
+     * to the threads already waiting but not stored. Guarded by the lock of
+     * the cache.
+     */
+    boolean invalidated;
+
+    /**
+     * Waits for the value, rethrowing the exception of the factory as is.
+     */
+    V await() {
+        try {
+            return join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the load is done, whatever its outcome.
+     */
+    void awaitDone() {
+        handle((value, e) -> null).join();
+    }
+}
@@ -1,11 +1,63 @@
 package org.acarrasco.collections;
 
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Rather than declaring a `get` method we use `apply` to implement the general `Function`
  * interface, so they are composable and reusable with any functional framework.
  */
 public interface ReadThroughCache<K, V> extends Function<K, V>, Iterable<Entry<K,V>> {
-    
+
+    /**
+     * Returns the value associated with a key if it is already in the cache,
+     * without computing it, otherwise null. A hit counts as an access.
+     */
+    V getIfPresent(K key);
+
+    /**
+     * Removes a key from the cache, so the next access will compute it again.
+     * 
+     * @return true if the key was present.
+     */
+    boolean invalidate(K key);
+
+    /**
+     * Sets the listener that will be notified of the loads, evictions and
+     * invalidations of the cache. There is a single listener per cache.
+     */
+    void setEventListener(CacheEventListener<K, V> listener);
+
+    /**
+     * The maximum number of entries the cache can hold.
+     */
+    int maximumSize();
+
+    /**
+     * Changes the maximum number of entries while the cache is in use.
+     * Growing takes effect immediately. Shrinking evicts the least recent
+     * entries in small batches, so other threads keep using the cache in the
+     * meantime, and returns once the cache fits in the new size.
+     */
+    void setMaximumSize(int maximumSize);
+
+    /**
+     * A sequential stream of the entries in the cache.
+     * 
+     * The stream is weakly consistent: it never fails because of concurrent
+     * modifications, and each entry is seen at most once, but entries added or
+     * evicted after the stream was created may or may not be seen.
+     */
+    default Stream<Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * A parallel stream of the entries in the cache, with the same consistency
+     * guarantees as {@link #stream()}.
+     */
+    default Stream<Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package org.acarrasco.collections;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * Estimates the miss ratio curve of an LRU cache at runtime, following the
+ * fixed-size variant of SHARDS (spatially hashed approximate reuse distance
+ * sampling).
+ *
+ * Only the keys whose hash falls under a threshold are tracked, so the rest of
+ * the accesses cost a hash computation and a comparison. The reuse distances
+ * of the sampled keys are scaled by the sampling rate to approximate the reuse
+ * distances of the full trace. When more than `maxTrackedKeys` keys would be
+ * tracked the threshold is lowered, so the memory used is bounded.
+ */
+public class ReuseDistanceSampler<K> {
+
+    /**
+     * The modulus of the sampling hashes.
+     */
+    static final int P = 1 << 24;
+
+    private class Tracked {
+        final K key;
+        final int hash;
+        int timestamp;
+
+        Tracked(K key, int hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Keys with a sampling hash lower than the threshold are sampled.
+     */
+    private volatile int threshold;
+
+    private final int maxTrackedKeys;
+
+    /**
+     * The sampled keys, by key.
+     */
+    private final HashMap<K, Tracked> tracked = new HashMap<>();
+
+    /**
+     * The sampled keys, the one with the highest hash first.
+     */
+    private final PriorityQueue<Tracked> byHash = new PriorityQueue<>((a, b) -> Integer.compare(b.hash, a.hash));
+
+    /**
+     * A Fenwick tree with a 1 at the last access timestamp of each tracked key,
+     * so the number of distinct keys accessed since a timestamp is computed in
+     * O(log n).
+     */
+    private int[] lastAccesses;
+
+    private int clock = 0;
+
+    /**
+     * The width, in cache entries, of each bucket of the histogram.
+     */
+    private final int bucketWidth;
+
+    /**
+     * The histogram of scaled reuse distances, the last bucket holds the
+     * distances that are too long and the cold misses.
+     */
+    private final double[] histogram;
+
+    private double total = 0;
+
+    /**
+     * @param samplingRate   The initial fraction of keys that are sampled.
+     * @param maxTrackedKeys The maximum number of sampled keys that are kept.
+     * @param bucketWidth    The resolution of the curve, in cache entries.
+     * @param buckets        The number of points of the curve, the biggest
+     *                       capacity estimated is `bucketWidth * buckets`.
+     */
+    public ReuseDistanceSampler(double samplingRate, int maxTrackedKeys, int bucketWidth, int buckets) {
+        if (samplingRate <= 0 || samplingRate > 1) {
+            throw new IllegalArgumentException("The sampling rate must be in (0, 1]: " + samplingRate);
+        }
+        this.threshold = (int) Math.ceil(samplingRate * P);
+        this.maxTrackedKeys = maxTrackedKeys;
+        this.bucketWidth = bucketWidth;
+        this.histogram = new double[buckets + 1];
+        this.lastAccesses = new int[4 * maxTrackedKeys + 1];
+    }
+
+    /**
+     * Records an access to a key.
+     */
+    public void access(K key) {
+        final int hash = samplingHash(key);
+        if (hash >= this.threshold) {
+            return;
+        }
+        synchronized (this) {
+            if (hash < this.threshold) {
+                sampledAccess(key, hash);
+            }
+        }
+    }
+
+    /**
+     * The fraction of the keys that are currently sampled.
+     */
+    public double samplingRate() {
+        return (double) this.threshold / P;
+    }
+
+    /**
+     * A snapshot of the estimated miss ratio curve.
+     */
+    public synchronized MissRatioCurve curve() {
+        final double[] missRatios = new double[this.histogram.length];
+        double hits = 0;
+        for (int i = 0; i < missRatios.length; i++) {
+            missRatios[i] = this.total == 0 ? 1 : 1 - hits / this.total;
+            hits += this.histogram[i];
+        }
+        return new MissRatioCurve(this.bucketWidth, missRatios);
+    }
+
+    private void sampledAccess(K key, int hash) {
+        if (this.clock + 1 >= this.lastAccesses.length) {
+            compact();
+        }
+        final int now = this.clock++;
+        Tracked entry = this.tracked.get(key);
+        if (entry == null) {
+            record(this.histogram.length - 1);
+            entry = new Tracked(key, hash);
+            this.tracked.put(key, entry);
+            this.byHash.add(entry);
+        } else {
+            final int distance = this.tracked.size() - prefixSum(entry.timestamp);
+            final long scaled = (long) (distance / samplingRate());
+            record((int) Math.min(scaled / this.bucketWidth, this.histogram.length - 1));
+            add(entry.timestamp, -1);
+        }
+        entry.timestamp = now;
+        add(now, 1);
+
+        if (this.tracked.size() > this.maxTrackedKeys) {
+            lowerThreshold();
+        }
+    }
+
+    private void record(int bucket) {
+        this.histogram[bucket]++;
+        this.total++;
+    }
+
+    /**
+     * Stops sampling the keys with the highest hash, and rescales the
+     * histogram to the new sampling rate.
+     */
+    private void lowerThreshold() {
+        final int newThreshold = this.byHash.peek().hash;
+        while (!this.byHash.isEmpty() && this.byHash.peek().hash >= newThreshold) {
+            final Tracked evicted = this.byHash.poll();
+            this.tracked.remove(evicted.key);
+            add(evicted.timestamp, -1);
+        }
+        final double ratio = (double) newThreshold / this.threshold;
+        for (int i = 0; i < this.histogram.length; i++) {
+            this.histogram[i] *= ratio;
+        }
+        this.total *= ratio;
+        this.threshold = newThreshold;
+    }
+
+    /**
+     * Renumbers the timestamps of the tracked keys from 0, keeping their order.
+     */
+    private void compact() {
+        final ArrayList<Tracked> entries = new ArrayList<>(this.tracked.values());
+        entries.sort((a, b) -> Integer.compare(a.timestamp, b.timestamp));
+        this.lastAccesses = new int[this.lastAccesses.length];
+        this.clock = 0;
+        for (Tracked entry : entries) {
+            entry.timestamp = this.clock++;
+            add(entry.timestamp, 1);
+        }
+    }
+
+    /**
+     * The number of tracked keys last accessed at or before the timestamp.
+     */
+    private int prefixSum(int timestamp) {
+        int sum = 0;
+        for (int i = timestamp + 1; i > 0; i -= i & -i) {
+            sum += this.lastAccesses[i];
+        }
+        return sum;
+    }
+
+    private void add(int timestamp, int delta) {
+        for (int i = timestamp + 1; i < this.lastAccesses.length; i += i & -i) {
+            this.lastAccesses[i] += delta;
+        }
+    }
+
+    /**
+     * A well mixed hash in [0, P), so sampling does not depend on the quality
+     * of the key's own hash code.
+     */
+    static int samplingHash(Object key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & (P - 1);
+    }
+}
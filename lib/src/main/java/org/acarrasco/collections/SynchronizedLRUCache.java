@@ -1,11 +1,25 @@
 package org.acarrasco.collections;
 
 import java.util.function.Function;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 
 /**
  * An implementation of a LRU cache that is efficient for large capacity.
+ *
+ * Optionally it can be segmented (SLRU): new keys enter a probationary
+ * segment, and only the keys that are hit while there are promoted to a
+ * protected segment. The least recent protected keys are demoted back to
+ * probation when it is full, and keys are only evicted from probation, so a
+ * scan of keys that are used once doesn't evict the protected ones.
+ *
+ * Missing values are computed without holding the lock, so a slow load
+ * doesn't block the other keys, nor pins the carrier of a virtual thread.
+ * The threads that miss a key that is being loaded wait for the same load.
  */
 public class SynchronizedLRUCache<K, V> implements ReadThroughCache<K, V> {
 
@@ -15,61 +29,346 @@ public class SynchronizedLRUCache<K, V> implements ReadThroughCache<K, V> {
     private final Function<K, V> missingValueFactory;
 
     /**
-     * The maximum number of elements this cache can hold.
+     * The maximum number of elements this cache can hold. While shrinking it
+     * can be less than the capacity of the lists.
      */
-    private final int capacity;
+    private int capacity;
 
     /**
-     * The data structure that keeps the order of last access.
+     * The data structure that keeps the order of last access. In segmented
+     * mode, only of the probationary keys.
      */
     private FixedLinkedList<Entry<K, V>> recencyList;
 
+    /**
+     * The order of last access of the protected keys, null if not segmented.
+     */
+    private FixedLinkedList<Entry<K, V>> protectedList;
+
+    /**
+     * The fraction of the capacity given to the protected segment, as
+     * configured, so resizing many times doesn't accumulate rounding errors.
+     */
+    private final double protectedRatio;
+
     /**
      * Associates the keys to their entries in the recencyList, so the
      * cost of moving an entry to the head is O(1).
      */
     private HashMap<K, FixedLinkedList<Entry<K, V>>.Node> keyIndex;
 
+    /**
+     * The keys whose value is being computed, which are not in the cache yet.
+     */
+    private final HashMap<K, PendingLoad<V>> loads = new HashMap<>();
+
+    private CacheEventListener<K, V> listener = CacheEventListener.none();
+
+    /**
+     * Serializes the calls to `setMaximumSize`, which release the monitor
+     * between batches of evictions.
+     */
+    private final Object resizeLock = new Object();
+
+    /**
+     * The maximum number of evictions done by `setMaximumSize` before letting
+     * other threads use the cache.
+     */
+    private static final int EVICTION_BATCH = 64;
+
     public SynchronizedLRUCache(
             int capacity,
             Function<K, V> missingValueFactory) {
+        this(capacity, missingValueFactory, 0);
+    }
 
+    /**
+     * @param capacity            The maximum number of elements this cache can
+     *                            hold.
+     * @param missingValueFactory The function that will compute missing values.
+     * @param protectedCapacity   The maximum number of elements of the
+     *                            protected segment, less than the capacity, or
+     *                            0 to not segment the cache.
+     */
+    public SynchronizedLRUCache(
+            int capacity,
+            Function<K, V> missingValueFactory,
+            int protectedCapacity) {
+
+        if (protectedCapacity < 0 || protectedCapacity >= capacity) {
+            throw new IllegalArgumentException("The protected capacity must be between 0 and " + (capacity - 1));
+        }
         this.capacity = capacity;
         this.missingValueFactory = missingValueFactory;
 
         this.recencyList = new FixedLinkedList<>(capacity);
+        this.protectedList = protectedCapacity > 0 ? new FixedLinkedList<>(protectedCapacity) : null;
+        this.protectedRatio = (double) protectedCapacity / capacity;
         this.keyIndex = new HashMap<>();
     }
 
+    /**
+     * A factory of segmented caches, whose protected segment takes the given
+     * fraction of the capacity.
+     */
+    public static ReadThroughCacheFactory segmented(double protectedRatio) {
+        return new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                final int protectedCapacity = Math.min(capacity - 1, (int) (capacity * protectedRatio));
+                return new SynchronizedLRUCache<>(capacity, missingValueFactory, Math.max(0, protectedCapacity));
+            }
+        };
+    }
+
     @Override
-    public synchronized V apply(K key) {
-        Entry<K, V> entry;
-        FixedLinkedList<Entry<K, V>>.Node node = keyIndex.get(key);
-
-        if (node != null) {
-            entry = node.value;
-            node.remove();
-        } else {
-            if (this.keyIndex.size() < this.capacity) {
-                entry = new Entry<>();
-            } else {
-                node = this.recencyList.head();
-                entry = node.value;
-                this.keyIndex.remove(entry.key);
-                node.remove();
+    public V apply(K key) {
+        PendingLoad<V> load;
+        while (true) {
+            final boolean invalidated;
+            synchronized (this) {
+                final FixedLinkedList<Entry<K, V>>.Node node = this.keyIndex.get(key);
+                if (node != null) {
+                    return hit(node);
+                }
+                load = this.loads.get(key);
+                if (load == null) {
+                    load = new PendingLoad<>();
+                    this.loads.put(key, load);
+                    break;
+                }
+                invalidated = load.invalidated;
+            }
+            final CacheEvents.Wait waitEvent = new CacheEvents.Wait();
+            waitEvent.begin();
+            if (!invalidated) {
+                final V value = load.await();
+                CacheEvents.waited(waitEvent, this, key);
+                return value;
+            }
+            // the invalidated value can't be returned, but the key can't be
+            // computed twice at the same time either
+            load.awaitDone();
+            CacheEvents.waited(waitEvent, this, key);
+        }
+
+        final V value;
+        final CacheEvents.Load loadEvent = new CacheEvents.Load();
+        loadEvent.begin();
+        try {
+            value = this.missingValueFactory.apply(key);
+        } catch (RuntimeException | Error e) {
+            CacheEvents.load(loadEvent, this, key, true);
+            synchronized (this) {
+                this.loads.remove(key);
             }
-            entry.key = key;
-            entry.value = this.missingValueFactory.apply(key);    
-        } 
+            load.completeExceptionally(e);
+            throw e;
+        }
+        CacheEvents.load(loadEvent, this, key, false);
+
+        synchronized (this) {
+            this.loads.remove(key);
+            if (!load.invalidated) {
+                final Entry<K, V> entry = this.keyIndex.size() < this.capacity ? new Entry<>() : evict();
+                entry.key = key;
+                entry.value = value;
+                this.listener.onLoad(key, value);
+                this.keyIndex.put(key, this.recencyList.add(entry));
+            }
+        }
+        load.complete(value);
+        return value;
+    }
+
+    @Override
+    public synchronized V getIfPresent(K key) {
+        FixedLinkedList<Entry<K, V>>.Node node = this.keyIndex.get(key);
+        if (node == null) {
+            return null;
+        }
+        return hit(node);
+    }
+
+    /**
+     * Removes the least recent entry and returns it, so it can be reused.
+     * In segmented mode probation is only empty while shrinking.
+     */
+    private Entry<K, V> evict() {
+        FixedLinkedList<Entry<K, V>>.Node node = this.recencyList.head();
+        if (node == null) {
+            node = this.protectedList.head();
+        }
+        final Entry<K, V> entry = node.value;
+        this.keyIndex.remove(entry.key);
+        node.remove();
+        CacheEvents.evicted(this, entry.key);
+        this.listener.onEviction(entry.key, entry.value);
+        return entry;
+    }
 
-        node = this.recencyList.add(entry);
-        this.keyIndex.put(key, node);
+    /**
+     * Moves the entry of a hit to the end of its segment, or promotes it if it
+     * was in probation.
+     */
+    private V hit(FixedLinkedList<Entry<K, V>>.Node node) {
+        final Entry<K, V> entry = node.value;
+        FixedLinkedList<Entry<K, V>> list = node.list();
+        node.remove();
+        if (this.protectedList != null && list == this.recencyList) {
+            if (this.protectedList.size() == this.protectedList.capacity()) {
+                // demoted keys get another chance before being evicted
+                final FixedLinkedList<Entry<K, V>>.Node demoted = this.protectedList.head();
+                final Entry<K, V> demotedEntry = demoted.value;
+                demoted.remove();
+                this.keyIndex.put(demotedEntry.key, this.recencyList.add(demotedEntry));
+            }
+            list = this.protectedList;
+        }
+        this.keyIndex.put(entry.key, list.add(entry));
         return entry.value;
     }
 
+    @Override
+    public synchronized int maximumSize() {
+        return this.capacity;
+    }
+
+    /**
+     * The lists are resized once the entries fit in them. In segmented mode
+     * the protected segment keeps the same fraction of the capacity, and needs
+     * a capacity of at least 2.
+     */
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        synchronized (this.resizeLock) {
+            final int protectedCapacity;
+            synchronized (this) {
+                if (maximumSize < (this.protectedList == null ? 1 : 2)) {
+                    throw new IllegalArgumentException("Invalid maximum size " + maximumSize);
+                }
+                protectedCapacity = this.protectedList == null ? 0
+                        : Math.max(1, Math.min(maximumSize - 1, (int) Math.round(this.protectedRatio * maximumSize)));
+                // from now on misses evict instead of taking free nodes, growing
+                // waits until the lists are resized
+                this.capacity = Math.min(this.capacity, maximumSize);
+            }
+            // the loads in flight are not entries yet, so every step evicts
+            // a batch and this never waits for them, it only lets the
+            // threads blocked on the monitor in between
+            while (!shrinkStep(maximumSize, protectedCapacity)) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Evicts or demotes a batch of entries, and resizes the lists once they
+     * fit.
+     *
+     * @return true if the lists have been resized.
+     */
+    private synchronized boolean shrinkStep(int capacity, int protectedCapacity) {
+        for (int i = 0; i < EVICTION_BATCH; i++) {
+            if (this.protectedList != null && this.protectedList.size() > protectedCapacity) {
+                // probation is as big as the old capacity, so it has room
+                final FixedLinkedList<Entry<K, V>>.Node demoted = this.protectedList.head();
+                final Entry<K, V> entry = demoted.value;
+                demoted.remove();
+                this.keyIndex.put(entry.key, this.recencyList.add(entry));
+            } else if (this.keyIndex.size() > capacity) {
+                evict();
+            } else {
+                this.recencyList.resize(capacity);
+                if (this.protectedList != null) {
+                    this.protectedList.resize(protectedCapacity);
+                }
+                this.capacity = capacity;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean invalidate(K key) {
+        final PendingLoad<V> load = this.loads.get(key);
+        if (load != null) {
+            // the threads already waiting for it still get the value
+            load.invalidated = true;
+            return true;
+        }
+        final FixedLinkedList<Entry<K, V>>.Node node = this.keyIndex.remove(key);
+        if (node == null) {
+            return false;
+        }
+        final Entry<K, V> entry = node.value;
+        node.remove();
+        this.listener.onInvalidation(entry.key, entry.value);
+        return true;
+    }
+
+    @Override
+    public synchronized void setEventListener(CacheEventListener<K, V> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Iterates over copies of the entries, like the spliterator, as the nodes
+     * are moved when the cache is resized.
+     */
     @Override
     public Iterator<Entry<K, V>> iterator() {
-        return this.recencyList.iterator();
+        return Spliterators.iterator(spliterator());
+    }
+
+    /**
+     * Splits by index range over the nodes of the recency list. Each entry is
+     * copied while holding the lock, so it is safe to use concurrently with
+     * `apply`.
+     *
+     * In segmented mode a hit moves an entry between the segments, so a
+     * traversal by index could see it twice. The entries of both segments are
+     * copied at once instead.
+     */
+    @Override
+    public synchronized Spliterator<Entry<K, V>> spliterator() {
+        if (this.protectedList != null) {
+            final List<Entry<K, V>> entries = new ArrayList<>(this.keyIndex.size());
+            copyEntries(this.recencyList, entries);
+            copyEntries(this.protectedList, entries);
+            return entries.spliterator();
+        }
+        return new EntrySpliterator(0, this.recencyList.capacity());
+    }
+
+    private static <K, V> void copyEntries(FixedLinkedList<Entry<K, V>> list, List<Entry<K, V>> entries) {
+        for (int idx = 0; idx < list.capacity(); idx++) {
+            final Entry<K, V> entry = list.get(idx);
+            if (entry != null) {
+                entries.add(new Entry<>(entry.key, entry.value));
+            }
+        }
     }
 
+    private class EntrySpliterator extends IndexSpliterator<Entry<K, V>> {
+
+        EntrySpliterator(int from, int to) {
+            super(from, to);
+        }
+
+        @Override
+        Entry<K, V> get(int idx) {
+            synchronized (SynchronizedLRUCache.this) {
+                // the list could have been resized since the split
+                final Entry<K, V> entry = idx < recencyList.capacity() ? recencyList.get(idx) : null;
+                return entry == null ? null : new Entry<>(entry.key, entry.value);
+            }
+        }
+
+        @Override
+        IndexSpliterator<Entry<K, V>> split(int from, int to) {
+            return new EntrySpliterator(from, to);
+        }
+    }
 }
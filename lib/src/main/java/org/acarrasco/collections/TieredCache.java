@@ -0,0 +1,389 @@
+package org.acarrasco.collections;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * A two level cache: a few small near caches (L1), each one shared by a group
+ * of threads, in front of a big far cache (L2) that computes the missing
+ * values.
+ *
+ * The near caches are {@link LockFreeLRUCache}s whose missing value factory
+ * is the far cache, so a near miss only takes the monitor of the near cache
+ * while claiming a slot, and then the far cache is accessed without holding
+ * it. Using a sharded far cache, such as a {@link MappedCache}, keeps far hits
+ * from contending on a global lock.
+ *
+ * A key is only promoted to a near cache once it has been requested
+ * `promotionThreshold` times, as estimated by a small frequency sketch, so
+ * keys that are seldom used don't displace the hot ones.
+ *
+ * In exclusive mode the values that are not in the far cache, because they
+ * were promoted to one or more near caches or are waiting to be demoted, are
+ * kept in an index, where the far cache looks before computing a value. A
+ * key is added to the index before it is removed from the far cache, and
+ * removed from the index after it is back in it, so it is always found in
+ * one of them. All the changes of the far cache are done without holding the
+ * lock of a near cache.
+ */
+public class TieredCache<K, V> implements ReadThroughCache<K, V> {
+
+    public enum Mode {
+        /**
+         * The keys promoted to a near cache are also kept in the far cache.
+         */
+        INCLUSIVE,
+
+        /**
+         * The keys promoted to a near cache are removed from the far cache, and
+         * put back in it when they are evicted from the near cache, so the
+         * total capacity is the sum of both levels.
+         */
+        EXCLUSIVE
+    }
+
+    private final ReadThroughCache<K, V>[] nearCaches;
+
+    private final ReadThroughCache<K, V> farCache;
+
+    private final Mode mode;
+
+    private final int promotionThreshold;
+
+    private final FrequencySketch frequencies;
+
+    /**
+     * A value that is not in the far cache, and how many near caches hold
+     * it. Replaced on every change, so it can be removed only if unchanged.
+     * Without a value it marks a key being invalidated, which can't be
+     * promoted.
+     */
+    private static final class Promoted<V> {
+        final V value;
+        final int copies;
+
+        Promoted(V value, int copies) {
+            this.value = value;
+            this.copies = copies;
+        }
+    }
+
+    /**
+     * The values of the keys promoted to the near caches, including the ones
+     * with no copies left that are waiting to be put back in the far cache,
+     * only used in exclusive mode.
+     */
+    private final ConcurrentHashMap<K, Promoted<V>> promoted = new ConcurrentHashMap<>();
+
+    private final ConcurrentLinkedQueue<K> pendingDemotions = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Incremented when an invalidation starts and ends, striped by key, so a
+     * promotion that raced with an invalidation doesn't add a stale value to
+     * the index.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private static final int GENERATION_STRIPES = 256;
+
+    private final LongAdder nearRequests = new LongAdder();
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder farRequests = new LongAdder();
+    private final LongAdder farMisses = new LongAdder();
+
+    /**
+     * @param nearCaches          The number of near caches, threads are
+     *                            assigned to one of them by their id.
+     * @param nearCapacity        The capacity of each near cache.
+     * @param farCapacity         The capacity of the far cache.
+     * @param missingValueFactory The function that will compute missing values.
+     * @param farCacheFactory     The function that will build the far cache.
+     * @param mode                Whether the levels are inclusive or exclusive.
+     * @param promotionThreshold  The number of requests of a key before it is
+     *                            promoted to a near cache, 1 to always promote.
+     */
+    @SuppressWarnings("unchecked")
+    public TieredCache(int nearCaches, int nearCapacity, int farCapacity, Function<K, V> missingValueFactory,
+            ReadThroughCacheFactory farCacheFactory, Mode mode, int promotionThreshold) {
+        this.mode = mode;
+        this.promotionThreshold = promotionThreshold;
+        this.frequencies = new FrequencySketch(Math.max(64, nearCaches * nearCapacity * 4));
+        this.nearCaches = new ReadThroughCache[nearCaches];
+
+        this.farCache = farCacheFactory.build(farCapacity, (key) -> {
+            // the key could have been promoted by another group of threads
+            final Promoted<V> entry = this.promoted.get(key);
+            if (entry != null && entry.value != null) {
+                return entry.value;
+            }
+            this.farMisses.increment();
+            return missingValueFactory.apply(key);
+        });
+
+        // runs without holding the lock of the near cache
+        final Function<K, V> nearMissingValueFactory = (key) -> {
+            this.farRequests.increment();
+            if (this.mode == Mode.INCLUSIVE) {
+                return this.farCache.apply(key);
+            }
+            final long generation = generation(key);
+            final V value = this.farCache.apply(key);
+            if (promote(key, value, generation)) {
+                this.farCache.invalidate(key);
+            }
+            return value;
+        };
+        final CacheEventListener<K, V> nearListener = new CacheEventListener<>() {
+            @Override
+            public void onEviction(K key, V value) {
+                // the far cache is not updated while holding the lock of the near cache
+                if (release(key, value) != null) {
+                    pendingDemotions.add(key);
+                }
+            }
+
+            @Override
+            public void onInvalidation(K key, V value) {
+                final Promoted<V> entry = release(key, value);
+                if (entry != null) {
+                    // only the invalidations of this cache reach the near caches
+                    promoted.remove(key, entry);
+                }
+            }
+        };
+        for (int i = 0; i < nearCaches; i++) {
+            this.nearCaches[i] = new LockFreeLRUCache<>(nearCapacity, nearMissingValueFactory);
+            if (mode == Mode.EXCLUSIVE) {
+                this.nearCaches[i].setEventListener(nearListener);
+            }
+        }
+    }
+
+    @Override
+    public V apply(K key) {
+        final ReadThroughCache<K, V> nearCache = nearCache();
+        this.nearRequests.increment();
+        V value = nearCache.getIfPresent(key);
+        if (value != null) {
+            this.nearHits.increment();
+            return value;
+        }
+        if (this.frequencies.increment(key) >= this.promotionThreshold) {
+            value = nearCache.apply(key);
+        } else {
+            this.farRequests.increment();
+            value = this.farCache.apply(key);
+        }
+        demote();
+        return value;
+    }
+
+    @Override
+    public V getIfPresent(K key) {
+        V value = nearCache().getIfPresent(key);
+        if (value == null) {
+            value = this.farCache.getIfPresent(key);
+        }
+        if (value == null && this.mode == Mode.EXCLUSIVE) {
+            // promoted to the near cache of another group of threads
+            final Promoted<V> entry = this.promoted.get(key);
+            value = entry == null ? null : entry.value;
+        }
+        return value;
+    }
+
+    /**
+     * Removes the key from all the levels. The far cache goes first, so a near
+     * cache that is loading the key concurrently either gets a fresh value or
+     * has already claimed a slot that the near invalidation will wait for.
+     *
+     * In exclusive mode the key is replaced in the index by a mark that stops
+     * its promotion until the invalidation ends, as the far cache could still
+     * return the previous value until it's invalidated.
+     */
+    @Override
+    public boolean invalidate(K key) {
+        boolean found = false;
+        final Promoted<V> invalidating = this.mode == Mode.EXCLUSIVE ? new Promoted<>(null, 0) : null;
+        if (this.mode == Mode.EXCLUSIVE) {
+            final Promoted<V> previous = this.promoted.put(key, invalidating);
+            found = previous != null && previous.value != null;
+            this.generations.incrementAndGet(stripe(key));
+        }
+        found |= this.farCache.invalidate(key);
+        for (ReadThroughCache<K, V> nearCache : this.nearCaches) {
+            found |= nearCache.invalidate(key);
+        }
+        if (this.mode == Mode.EXCLUSIVE) {
+            this.promoted.compute(key, (k, entry) -> {
+                // a value read before is not promoted after the mark is gone
+                this.generations.incrementAndGet(stripe(k));
+                return entry == invalidating ? null : entry;
+            });
+        }
+        return found;
+    }
+
+    /**
+     * Sets the listener of the far cache, which is where the values are
+     * loaded. In exclusive mode the promotions to a near cache are seen as
+     * invalidations, and the demotions as loads.
+     */
+    @Override
+    public void setEventListener(CacheEventListener<K, V> listener) {
+        this.farCache.setEventListener(listener);
+    }
+
+    /**
+     * The maximum size of the far cache, the near caches keep their capacity.
+     */
+    @Override
+    public int maximumSize() {
+        return this.farCache.maximumSize();
+    }
+
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        this.farCache.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * The statistics of the near caches, where every request starts.
+     */
+    public CacheStats nearStats() {
+        final long requests = this.nearRequests.sum();
+        return new CacheStats(requests, requests - this.nearHits.sum(), null);
+    }
+
+    /**
+     * The statistics of the far cache, for the requests that missed the near
+     * caches.
+     */
+    public CacheStats farStats() {
+        return new CacheStats(this.farRequests.sum(), this.farMisses.sum(), null);
+    }
+
+    /**
+     * The entries of all the near caches followed by the entries of the far
+     * cache. In inclusive mode a key can be seen more than once.
+     */
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return stream().iterator();
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        Stream<Entry<K, V>> entries = this.farCache.stream();
+        for (ReadThroughCache<K, V> nearCache : this.nearCaches) {
+            entries = Stream.concat(nearCache.stream(), entries);
+        }
+        return entries.spliterator();
+    }
+
+    private ReadThroughCache<K, V> nearCache() {
+        return this.nearCaches[(int) (Thread.currentThread().threadId() % this.nearCaches.length)];
+    }
+
+    /**
+     * Puts the values evicted from the near caches back in the far cache,
+     * unless they have been promoted again.
+     */
+    private void demote() {
+        K key;
+        while ((key = this.pendingDemotions.poll()) != null) {
+            final Promoted<V> entry = this.promoted.get(key);
+            if (entry != null && entry.value != null && entry.copies == 0) {
+                // the far cache loads it from the index
+                this.farCache.apply(key);
+                this.promoted.remove(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Adds a copy of a value loaded by a near cache to the index, unless the
+     * key is being invalidated or was invalidated since the generation was
+     * read.
+     *
+     * @return true if the value is in the index, so it can be removed from
+     *         the far cache.
+     */
+    private boolean promote(K key, V value, long generation) {
+        final boolean[] added = new boolean[1];
+        this.promoted.compute(key, (k, entry) -> {
+            if (generation(k) != generation || (entry != null && entry.value != value)) {
+                return entry;
+            }
+            added[0] = true;
+            return entry == null ? new Promoted<>(value, 1) : new Promoted<>(value, entry.copies + 1);
+        });
+        return added[0];
+    }
+
+    /**
+     * Removes a copy of a value from the index when it leaves a near cache,
+     * unless the index has moved on to another value of the key.
+     *
+     * @return the entry left in the index if that was its last copy, or null.
+     */
+    private Promoted<V> release(K key, V value) {
+        final Promoted<V> entry = this.promoted.computeIfPresent(key, (k, current) -> current.value != value ? current
+                : new Promoted<>(value, Math.max(0, current.copies - 1)));
+        return entry != null && entry.value == value && entry.copies == 0 ? entry : null;
+    }
+
+    private long generation(K key) {
+        return this.generations.get(stripe(key));
+    }
+
+    private static int stripe(Object key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * Approximate counts of the recent requests of each key. The counts are
+     * halved periodically so keys that are no longer requested fade out.
+     */
+    private static class FrequencySketch {
+        private final AtomicIntegerArray counters;
+        private final int mask;
+        private final int resetPeriod;
+        private final AtomicInteger increments = new AtomicInteger();
+
+        FrequencySketch(int size) {
+            final int capacity = Integer.highestOneBit(size - 1) << 1;
+            this.counters = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+            this.resetPeriod = capacity * 10;
+        }
+
+        /**
+         * Counts a request of the key and returns its estimated frequency.
+         */
+        int increment(Object key) {
+            int h = key.hashCode() * 0x9e3779b9;
+            h ^= h >>> 16;
+            final int count = this.counters.incrementAndGet(h & this.mask);
+            if (this.increments.incrementAndGet() % this.resetPeriod == 0) {
+                age();
+            }
+            return count;
+        }
+
+        private void age() {
+            for (int i = 0; i < this.counters.length(); i++) {
+                this.counters.set(i, this.counters.get(i) >>> 1);
+            }
+        }
+    }
+}
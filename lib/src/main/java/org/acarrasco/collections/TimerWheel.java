@@ -0,0 +1,191 @@
+package org.acarrasco.collections;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel, to find the timers whose deadline has passed
+ * without looking at the others.
+ *
+ * Each level is a ring of buckets, and each bucket a doubly linked list of
+ * the timers whose deadline falls in its span of time. The first level has
+ * buckets of about a millisecond, and every level above has buckets as long
+ * as the whole level below. Scheduling and descheduling a timer are O(1).
+ * Advancing the wheel only visits the buckets whose span has passed since the
+ * last advance, and moves the timers that are not due yet to a lower level.
+ *
+ * Timers can be fired up to a bucket early or late, so the owner must check
+ * the deadline, and schedule the timer again if it's not due.
+ *
+ * It's not thread safe, the owner must guard it with a lock.
+ */
+class TimerWheel<K> {
+
+    /**
+     * A deadline for a key, that can only be scheduled in one wheel at a time.
+     */
+    static class Timer<K> {
+        final K key;
+
+        /**
+         * In the time unit of the wheel, nanoseconds.
+         */
+        long deadline;
+
+        Timer<K> prev;
+        Timer<K> next;
+
+        Timer(K key) {
+            this.key = key;
+        }
+
+        boolean isScheduled() {
+            return this.prev != null;
+        }
+    }
+
+    private static final int BUCKETS = 64;
+
+    /**
+     * The log2 of the span of a bucket of each level, in nanoseconds: about
+     * 1ms, 67ms, 4.3s, 4.6min and 4.9h, so the top level spans 13 days. Timers
+     * further away are fired and scheduled again when they get closer.
+     */
+    private static final int[] SHIFTS = { 20, 26, 32, 38, 44 };
+
+    /**
+     * The sentinels of the lists of each bucket.
+     */
+    private final Timer<K>[][] wheel;
+
+    /**
+     * The time of the last advance.
+     */
+    private long nanos;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long nanos) {
+        this.nanos = nanos;
+        this.wheel = new Timer[SHIFTS.length][BUCKETS];
+        for (Timer<K>[] level : this.wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final Timer<K> sentinel = new Timer<>(null);
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+                level[i] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Schedules the timer, or moves it if it was already scheduled.
+     */
+    void schedule(Timer<K> timer, long deadline) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+        }
+        timer.deadline = deadline;
+        link(bucket(deadline), timer);
+    }
+
+    /**
+     * Removes the timer from the wheel, if it was scheduled.
+     */
+    void deschedule(Timer<K> timer) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+        }
+    }
+
+    /**
+     * The number of scheduled timers.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Moves the time forward, removing the timers whose deadline has passed
+     * and passing them to the consumer.
+     */
+    void advance(long now, Consumer<Timer<K>> expired) {
+        final long previous = this.nanos;
+        if (now - previous <= 0) {
+            return;
+        }
+        this.nanos = now;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            final long previousTicks = previous >>> SHIFTS[level];
+            final long currentTicks = now >>> SHIFTS[level];
+            if (currentTicks == previousTicks) {
+                // the levels above change even less often
+                break;
+            }
+            expire(level, previousTicks, currentTicks, expired);
+        }
+    }
+
+    /**
+     * Visits the buckets of a level from the previous tick to the current one,
+     * both included, so timers scheduled in the current bucket after an
+     * advance are not skipped.
+     */
+    private void expire(int level, long previousTicks, long currentTicks, Consumer<Timer<K>> expired) {
+        final Timer<K>[] buckets = this.wheel[level];
+        final int steps = (int) Math.min(1 + currentTicks - previousTicks, BUCKETS);
+        final int start = (int) (previousTicks & (BUCKETS - 1));
+        for (int i = start; i < start + steps; i++) {
+            final Timer<K> sentinel = buckets[i & (BUCKETS - 1)];
+            // detach the whole list, the timers that are not due are linked again
+            Timer<K> timer = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            while (timer != sentinel) {
+                final Timer<K> next = timer.next;
+                timer.prev = null;
+                timer.next = null;
+                this.size--;
+                if (timer.deadline - this.nanos <= 0) {
+                    expired.accept(timer);
+                } else {
+                    link(bucket(timer.deadline), timer);
+                }
+                timer = next;
+            }
+        }
+    }
+
+    /**
+     * The sentinel of the bucket of a deadline: the lowest level whose whole
+     * span covers the time left, so the bucket isn't visited before it's due.
+     */
+    private Timer<K> bucket(long deadline) {
+        // deadlines in the past go to the current bucket, visited on the next advance
+        final long duration = Math.max(0, deadline - this.nanos);
+        final long time = this.nanos + duration;
+        for (int level = 0; level < SHIFTS.length - 1; level++) {
+            if (duration < 1L << SHIFTS[level + 1]) {
+                return this.wheel[level][(int) ((time >>> SHIFTS[level]) & (BUCKETS - 1))];
+            }
+        }
+        final int top = SHIFTS.length - 1;
+        return this.wheel[top][(int) ((time >>> SHIFTS[top]) & (BUCKETS - 1))];
+    }
+
+    private void link(Timer<K> sentinel, Timer<K> timer) {
+        timer.prev = sentinel.prev;
+        timer.next = sentinel;
+        sentinel.prev.next = timer;
+        sentinel.prev = timer;
+        this.size++;
+    }
+
+    private void unlink(Timer<K> timer) {
+        timer.prev.next = timer.next;
+        timer.next.prev = timer.prev;
+        timer.prev = null;
+        timer.next = null;
+        this.size--;
+    }
+}
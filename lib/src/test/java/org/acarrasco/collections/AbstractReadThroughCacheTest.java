@@ -1,7 +1,12 @@
 package org.acarrasco.collections;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 
@@ -49,6 +54,39 @@ public abstract class AbstractReadThroughCacheTest {
         AbstractReadThroughCacheTest.testMultiThreadedRandomKeys(buildCache(missingValueFactory, 100), 500, 8, 500);
     }
 
+    @Test public void testParallelStream_capacity_1000_keyspace_3000() {
+        AbstractReadThroughCacheTest.testParallelStream(buildCache(missingValueFactory, 1000), 1000, 3000);
+    }
+
+    @Test public void testInvalidate_capacity_10() {
+        AbstractReadThroughCacheTest.testInvalidate(buildCache(missingValueFactory, 10), 10);
+    }
+
+    @Test public void testEventListener_capacity_10() {
+        AbstractReadThroughCacheTest.testEventListener(buildCache(missingValueFactory, 10), 10);
+    }
+
+    @Test public void testResize_capacity_10() {
+        AbstractReadThroughCacheTest.testResize(buildCache(missingValueFactory, 10), 10);
+    }
+
+    @Test public void testSlowLoad_capacity_10() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ReadThroughCache<Integer, Integer> cache = buildCache((x) -> {
+            if (x == 0) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return x * x;
+        }, 10);
+        AbstractReadThroughCacheTest.testSlowLoad(cache, 10, started, release);
+    }
+
     public static void testSingleThreadOneGetPerItem(ReadThroughCache<Integer, Integer> cache, int capacity,
             int loops) {
         for (int i = 0; i < loops * capacity; i++) {
@@ -202,4 +240,149 @@ public abstract class AbstractReadThroughCacheTest {
             }
         }
     }
+
+    public static void testParallelStream(ReadThroughCache<Integer, Integer> cache, int capacity, int keySpace) {
+        for (int i = 0; i < keySpace; i++) {
+            cache.apply(i);
+        }
+        final HashSet<Integer> expected = new HashSet<>();
+        for (int i = keySpace - capacity; i < keySpace; i++) {
+            expected.add(i);
+        }
+        assertEquals(capacity, cache.parallelStream().count());
+        assertEquals(expected, cache.parallelStream().map(Entry::getKey).collect(Collectors.toSet()));
+        assertEquals(expected, cache.stream().map(Entry::getKey).collect(Collectors.toSet()));
+    }
+
+    public static void testInvalidate(ReadThroughCache<Integer, Integer> cache, int capacity) {
+        final int[] loads = new int[2 * capacity];
+        final HashSet<Integer> expected = new HashSet<>();
+        for (int i = 0; i < capacity; i++) {
+            cache.apply(i);
+            expected.add(i);
+        }
+        assertTrue(cache.invalidate(0));
+        assertFalse(cache.invalidate(0));
+        assertFalse(cache.invalidate(capacity));
+        expected.remove(0);
+        final HashSet<Integer> result = new HashSet<>();
+        for (Entry<Integer, Integer> entry : cache) {
+            result.add(entry.key);
+        }
+        assertEquals(expected, result);
+
+        // the other keys are still cached after reusing the free slot
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onLoad(Integer key, Integer value) {
+                loads[key]++;
+            }
+        });
+        for (int i = capacity; i > 0; i--) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+        assertEquals(Integer.valueOf(0), cache.apply(0));
+        assertEquals(1, loads[capacity]);
+        assertEquals(1, loads[0]);
+        for (int i = 1; i < capacity; i++) {
+            assertEquals(0, loads[i]);
+        }
+    }
+
+    public static void testEventListener(ReadThroughCache<Integer, Integer> cache, int capacity) {
+        final List<String> events = new ArrayList<>();
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onLoad(Integer key, Integer value) {
+                events.add("load " + key + "=" + value);
+            }
+
+            @Override
+            public void onEviction(Integer key, Integer value) {
+                events.add("evict " + key + "=" + value);
+            }
+
+            @Override
+            public void onInvalidation(Integer key, Integer value) {
+                events.add("invalidate " + key + "=" + value);
+            }
+        });
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            cache.apply(i);
+            cache.apply(i);
+            expected.add("load " + i + "=" + i * i);
+        }
+        cache.apply(capacity);
+        expected.add("evict 0=0");
+        expected.add("load " + capacity + "=" + capacity * capacity);
+        cache.invalidate(1);
+        expected.add("invalidate 1=1");
+        assertEquals(expected, events);
+    }
+
+    public static void testResize(ReadThroughCache<Integer, Integer> cache, int capacity) {
+        final int[] loads = new int[4 * capacity];
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onLoad(Integer key, Integer value) {
+                loads[key]++;
+            }
+        });
+        for (int i = 0; i < capacity; i++) {
+            cache.apply(i);
+        }
+        cache.setMaximumSize(2 * capacity);
+        assertEquals(2 * capacity, cache.maximumSize());
+        for (int i = capacity; i < 2 * capacity; i++) {
+            cache.apply(i);
+        }
+        // growing kept everything
+        for (int i = 0; i < 2 * capacity; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+            assertEquals(1, loads[i]);
+        }
+
+        cache.setMaximumSize(capacity / 2);
+        assertEquals(capacity / 2, cache.maximumSize());
+        final HashSet<Integer> expected = new HashSet<>();
+        for (int i = 2 * capacity - capacity / 2; i < 2 * capacity; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, cache.stream().map(Entry::getKey).collect(Collectors.toSet()));
+
+        // and it keeps working with the new size
+        for (int i = 2 * capacity; i < 4 * capacity; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+        assertEquals(capacity / 2, cache.stream().count());
+    }
+
+    /**
+     * While the value of key 0 is being computed, the other keys are loaded
+     * and hit without waiting, and the other readers of key 0 wait for the
+     * same value.
+     */
+    public static void testSlowLoad(ReadThroughCache<Integer, Integer> cache, int capacity, CountDownLatch started,
+            CountDownLatch release) throws InterruptedException {
+        final Thread loader = new Thread(() -> cache.apply(0));
+        loader.start();
+        started.await();
+
+        for (int i = 1; i < capacity * 2; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+
+        final AtomicInteger read = new AtomicInteger(-1);
+        final Thread waiter = new Thread(() -> read.set(cache.apply(0)));
+        waiter.start();
+        waiter.join(50);
+        assertTrue(waiter.isAlive());
+
+        release.countDown();
+        loader.join();
+        waiter.join();
+        assertEquals(0, read.get());
+    }
 }
@@ -0,0 +1,56 @@
+package org.acarrasco.collections;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Records a benchmark with Flight Recorder when it's run with
+ * -Djfr=<file>, with the profile settings and every cache event enabled
+ * without threshold, so a slow scenario can be explained by its loads, waits
+ * and scans.
+ *
+ * The events are timestamped, so they can be matched with the scenarios by
+ * the time they were printed.
+ */
+class BenchmarkRecording implements AutoCloseable {
+
+    private final Recording recording;
+
+    private BenchmarkRecording(Recording recording) {
+        this.recording = recording;
+    }
+
+    /**
+     * Starts a recording if the jfr property is set, otherwise returns a
+     * recording that does nothing.
+     */
+    static BenchmarkRecording start() throws IOException, ParseException {
+        final String file = System.getProperty("jfr");
+        if (file == null) {
+            return new BenchmarkRecording(null);
+        }
+        final Recording recording = new Recording(Configuration.getConfiguration("profile"));
+        for (String event : new String[] { CacheEvents.LOAD, CacheEvents.WAIT, CacheEvents.EVICTION,
+                CacheEvents.SCAN }) {
+            recording.enable(event).withThreshold(Duration.ZERO);
+        }
+        recording.setDestination(Path.of(file));
+        recording.start();
+        return new BenchmarkRecording(recording);
+    }
+
+    /**
+     * Stops the recording and writes it to the file.
+     */
+    @Override
+    public void close() {
+        if (this.recording != null) {
+            this.recording.close();
+        }
+    }
+}
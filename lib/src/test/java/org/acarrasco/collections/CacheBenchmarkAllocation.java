@@ -0,0 +1,69 @@
+package org.acarrasco.collections;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Measures the bytes allocated per get by the cache itself, on a workload
+ * that always misses and on one that always hits.
+ *
+ * The keys are boxed beforehand and the missing value factory returns a
+ * constant, so any allocation comes from the cache. The numbers are read from
+ * the allocation counter of the current thread, the same one the gc profiler
+ * of JMH uses.
+ */
+public class CacheBenchmarkAllocation {
+
+    private static final Integer VALUE = 42;
+
+    public static void main(String[] args) {
+        final Map<String, ReadThroughCacheFactory> constructors = new LinkedHashMap<>();
+        constructors.put("lockfree", LockFreeLRUCache::new);
+        constructors.put("synchronized", SynchronizedLRUCache::new);
+        constructors.put("mapped", MappedCache.factory(16, LockFreeLRUCache::new));
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        final Function<Integer, Integer> missingValueFactory = (key) -> VALUE;
+
+        System.out.println("type\tcapacity\tworkload\tgets\tbytesPerGet");
+        for (int capacity = 64; capacity <= 4096; capacity *= 8) {
+            // cycling over more keys than the capacity always misses in a LRU cache
+            final Integer[] missKeys = boxedKeys(capacity * 4);
+            final Integer[] hitKeys = boxedKeys(capacity / 2);
+            final int gets = 4_000_000 / capacity * 64;
+            for (Map.Entry<String, ReadThroughCacheFactory> constructor : constructors.entrySet()) {
+                final ReadThroughCache<Integer, Integer> cache = constructor.getValue().build(capacity,
+                        missingValueFactory);
+                for (String workload : new String[] { "miss", "hit" }) {
+                    final Integer[] keys = workload.equals("miss") ? missKeys : hitKeys;
+                    // warm up, so the interpreter and the first loads don't count
+                    access(cache, keys, gets / 4);
+                    final long start = threads.getCurrentThreadAllocatedBytes();
+                    access(cache, keys, gets);
+                    final long allocated = threads.getCurrentThreadAllocatedBytes() - start;
+                    System.out.println(constructor.getKey() + "\t" + capacity + "\t" + workload + "\t" + gets + "\t"
+                            + String.format("%.2f", (double) allocated / gets));
+                }
+            }
+        }
+    }
+
+    private static Integer[] boxedKeys(int count) {
+        final Integer[] keys = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i;
+        }
+        return keys;
+    }
+
+    private static void access(ReadThroughCache<Integer, Integer> cache, Integer[] keys, int gets) {
+        for (int i = 0; i < gets; i++) {
+            if (cache.apply(keys[i % keys.length]) != VALUE) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
@@ -4,7 +4,19 @@ import java.util.function.Function;
 import java.util.Map;
 
 public class CacheBenchmarkRandomPattern {
-    public static void main(String[] args) {
+    /**
+     * Run with -Djfr=<file> to record the cache events, see BenchmarkRecording.
+     */
+    public static void main(String[] args) throws Exception {
+        final BenchmarkRecording recording = BenchmarkRecording.start();
+        try {
+            run();
+        } finally {
+            recording.close();
+        }
+    }
+
+    private static void run() {
         final Map<String, ReadThroughCacheFactory> constructors = Map.of(
                 "lockfree", LockFreeLRUCache::new,
                 "synchronized", SynchronizedLRUCache::new);
@@ -0,0 +1,76 @@
+package org.acarrasco.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A daytime workload of random reads over a hot set that fits in the cache,
+ * interrupted by a nightly batch job that reads every key of a much bigger key
+ * space once, like CacheBenchmarkSequentialPattern with repeatedGets=1.
+ *
+ * It prints the hit ratio of each policy during the day after the scan, which
+ * shows how much of the hot set survived it.
+ */
+public class CacheBenchmarkScanPattern {
+
+    public static void main(String[] args) {
+        final int[] capacities = { 64, 512, 4096, 32768 };
+        final HitRatioSimulator<Integer> simulator = new HitRatioSimulator<>(HitRatioSimulator.defaultPolicies(),
+                capacities);
+        final Random random = new Random(42);
+
+        System.out.println("type\tcapacity\thotSet\tscanLength\tdayHitRatio\tnextDayHitRatio");
+        for (int capacity : capacities) {
+            // a hot set that fills most of the cache, scanned by a key space 10 times the cache
+            simulate(simulator, random, capacity, capacity * 3 / 4, capacity * 10);
+        }
+    }
+
+    private static void simulate(HitRatioSimulator<Integer> simulator, Random random, int capacity, int hotSet,
+            int scanLength) {
+        final int dayLength = hotSet * 4;
+        final int hotOffset = capacity * 100;
+
+        day(simulator, random, hotOffset, hotSet, dayLength);
+        final Map<HitRatioSimulator<Integer>.Simulation, Long> dayMisses = misses(simulator);
+        day(simulator, random, hotOffset, hotSet, dayLength);
+        final Map<HitRatioSimulator<Integer>.Simulation, Long> beforeScan = misses(simulator);
+
+        for (int key = 0; key < scanLength; key++) {
+            simulator.access(key);
+        }
+
+        final Map<HitRatioSimulator<Integer>.Simulation, Long> afterScan = misses(simulator);
+        day(simulator, random, hotOffset, hotSet, dayLength);
+
+        for (HitRatioSimulator<Integer>.Simulation simulation : simulator.simulations()) {
+            if (simulation.capacity() != capacity) {
+                continue;
+            }
+            final long day = beforeScan.get(simulation) - dayMisses.get(simulation);
+            final long nextDay = simulation.misses() - afterScan.get(simulation);
+            System.out.println(simulation.policy() + "\t" + capacity + "\t" + hotSet + "\t" + scanLength + "\t"
+                    + hitRatio(day, dayLength) + "\t" + hitRatio(nextDay, dayLength));
+        }
+    }
+
+    private static void day(HitRatioSimulator<Integer> simulator, Random random, int hotOffset, int hotSet,
+            int length) {
+        for (int i = 0; i < length; i++) {
+            simulator.access(hotOffset + random.nextInt(hotSet));
+        }
+    }
+
+    private static Map<HitRatioSimulator<Integer>.Simulation, Long> misses(HitRatioSimulator<Integer> simulator) {
+        final Map<HitRatioSimulator<Integer>.Simulation, Long> misses = new HashMap<>();
+        for (HitRatioSimulator<Integer>.Simulation simulation : simulator.simulations()) {
+            misses.put(simulation, simulation.misses());
+        }
+        return misses;
+    }
+
+    private static String hitRatio(long misses, int requests) {
+        return String.format("%.4f", 1 - (double) misses / requests);
+    }
+}
@@ -0,0 +1,80 @@
+package org.acarrasco.collections;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Measures the throughput of each cache with an increasing number of virtual
+ * threads as callers, and a factory that sleeps as if it fetched the values
+ * from a remote service.
+ *
+ * If a cache blocked while holding a monitor, the callers would pin the few
+ * carrier threads and the throughput would stop growing with the number of
+ * callers. Run with -Djdk.tracePinnedThreads=short to see where they pin.
+ */
+public class CacheBenchmarkVirtualThreads {
+
+    private static final int CAPACITY = 1024;
+    private static final int KEY_SPACE = CAPACITY * 4;
+    private static final int GETS_PER_CALLER = 20;
+    private static final long FACTORY_DELAY_MILLIS = 10;
+
+    /**
+     * Run with -Djfr=<file> to record the cache events, see BenchmarkRecording.
+     */
+    public static void main(String[] args) throws Exception {
+        final BenchmarkRecording recording = BenchmarkRecording.start();
+        try {
+            run();
+        } finally {
+            recording.close();
+        }
+    }
+
+    private static void run() throws InterruptedException {
+        final Map<String, ReadThroughCacheFactory> constructors = new LinkedHashMap<>();
+        constructors.put("lockfree", LockFreeLRUCache::new);
+        constructors.put("synchronized", SynchronizedLRUCache::new);
+        constructors.put("compact", CompactLRUCache::new);
+        constructors.put("mapped", MappedCache.factory(16, LockFreeLRUCache::new));
+
+        final Function<Integer, Integer> missingValueFactory = (key) -> {
+            try {
+                Thread.sleep(FACTORY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return key * key;
+        };
+
+        System.out.println("type\tcallers\tgets\ttime\tgetsPerSecond");
+        for (int callers = 100; callers <= 10_000; callers *= 10) {
+            for (Map.Entry<String, ReadThroughCacheFactory> constructor : constructors.entrySet()) {
+                final ReadThroughCache<Integer, Integer> cache = constructor.getValue().build(CAPACITY,
+                        missingValueFactory);
+                final long start = System.nanoTime();
+                try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int i = 0; i < callers; i++) {
+                        executor.execute(() -> {
+                            final ThreadLocalRandom random = ThreadLocalRandom.current();
+                            for (int j = 0; j < GETS_PER_CALLER; j++) {
+                                final int key = random.nextInt(KEY_SPACE);
+                                if (cache.apply(key) != key * key) {
+                                    throw new IllegalStateException();
+                                }
+                            }
+                        });
+                    }
+                }
+                final long time = (System.nanoTime() - start) / 1_000_000;
+                final long gets = (long) callers * GETS_PER_CALLER;
+                System.out.println(constructor.getKey() + "\t" + callers + "\t" + gets + "\t" + time + "\t"
+                        + gets * 1000 / Math.max(1, time));
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CacheEventPublisherTest {
+
+    static class RecordingSubscriber implements Flow.Subscriber<List<CacheEvent<Integer, Integer>>> {
+        final List<CacheEvent<Integer, Integer>> events = new ArrayList<>();
+        final List<Integer> batchSizes = new ArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        final long delay;
+
+        RecordingSubscriber(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<CacheEvent<Integer, Integer>> batch) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            events.addAll(batch);
+            batchSizes.add(batch.size());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    @Test public void testDeliversEvents() throws InterruptedException {
+        final CacheEventPublisher<Integer, Integer> publisher = new CacheEventPublisher<>();
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(2, (x) -> x * x);
+        cache.setEventListener(publisher);
+        cache.apply(1);
+        cache.apply(2);
+        cache.apply(3);
+        cache.invalidate(3);
+        publisher.close();
+
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        final List<String> result = new ArrayList<>();
+        for (CacheEvent<Integer, Integer> event : subscriber.events) {
+            result.add(event.getType() + " " + event.getKey());
+        }
+        assertEquals(List.of("LOAD 1", "LOAD 2", "EVICTION 1", "LOAD 3", "INVALIDATION 3"), result);
+        assertEquals(0, publisher.droppedEvents());
+    }
+
+    @Test public void testSlowSubscriberDoesNotBlockTheCache() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CacheEventPublisher<Integer, Integer> publisher = new CacheEventPublisher<>(executor, 16, 4);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(50);
+        publisher.subscribe(subscriber);
+
+        final LockFreeLRUCache<Integer, Integer> cache = new LockFreeLRUCache<>(4, (x) -> x * x);
+        cache.setEventListener(publisher);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 10000; i++) {
+            cache.apply(i);
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        publisher.close();
+
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertTrue(publisher.droppedEvents() > 0);
+        for (int batchSize : subscriber.batchSizes) {
+            assertTrue(batchSize <= 4);
+        }
+        assertTrue(subscriber.batchSizes.stream().anyMatch((size) -> size > 1));
+        executor.shutdown();
+    }
+
+    @Test public void testRejectedDrainIsSubmittedAgain() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final AtomicBoolean reject = new AtomicBoolean(false);
+        final Executor executor = (task) -> {
+            if (reject.getAndSet(false)) {
+                throw new RejectedExecutionException();
+            }
+            pool.execute(task);
+        };
+        final CacheEventPublisher<Integer, Integer> publisher = new CacheEventPublisher<>(executor, 16, 4);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber);
+
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(4, (x) -> x * x);
+        cache.setEventListener(publisher);
+        // the subscription is started from the executor too
+        pool.submit(() -> { }).get();
+        reject.set(true);
+        cache.apply(1);
+        cache.apply(2);
+        // delivered without closing, by the drain submitted for the second event
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (subscriber.events.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, subscriber.events.size());
+        assertEquals(0, publisher.droppedEvents());
+        publisher.close();
+        pool.shutdown();
+    }
+
+    @Test public void testCloseWhilePublishing() throws InterruptedException {
+        final List<Throwable> failures = new CopyOnWriteArrayList<>();
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        // records the exceptions that would otherwise be lost in the pool
+        final Executor executor = (task) -> pool.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failures.add(e);
+            }
+        });
+        for (int round = 0; round < 200; round++) {
+            final CacheEventPublisher<Integer, Integer> publisher = new CacheEventPublisher<>(executor, 64, 4);
+            publisher.subscribe(new RecordingSubscriber(0));
+            final CountDownLatch started = new CountDownLatch(4);
+            final List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final Thread thread = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 1000; i++) {
+                        publisher.onLoad(i, i);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            started.await();
+            publisher.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(List.of(), failures);
+    }
+}
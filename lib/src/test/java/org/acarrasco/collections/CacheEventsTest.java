@@ -0,0 +1,104 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class CacheEventsTest {
+
+    @Test public void testLockFreeEvents() throws Exception {
+        final Map<String, Integer> counts = record(LockFreeLRUCache::new);
+        assertEquals(Integer.valueOf(8), counts.get(CacheEvents.LOAD));
+        assertEquals(Integer.valueOf(4), counts.get(CacheEvents.EVICTION));
+        assertTrue(counts.get(CacheEvents.WAIT) >= 1);
+        // one per miss, and one more per wake up of the waiting thread
+        assertTrue(counts.get(CacheEvents.SCAN) >= 8);
+    }
+
+    @Test public void testSynchronizedEvents() throws Exception {
+        final Map<String, Integer> counts = record(SynchronizedLRUCache::new);
+        assertEquals(Integer.valueOf(8), counts.get(CacheEvents.LOAD));
+        assertEquals(Integer.valueOf(4), counts.get(CacheEvents.EVICTION));
+        assertEquals(Integer.valueOf(1), counts.get(CacheEvents.WAIT));
+        assertNull(counts.get(CacheEvents.SCAN));
+    }
+
+    @Test public void testCompactEvents() throws Exception {
+        final Map<String, Integer> counts = record(CompactLRUCache::new);
+        assertEquals(Integer.valueOf(8), counts.get(CacheEvents.LOAD));
+        assertEquals(Integer.valueOf(4), counts.get(CacheEvents.EVICTION));
+        assertEquals(Integer.valueOf(1), counts.get(CacheEvents.WAIT));
+    }
+
+    /**
+     * Loads 8 keys in a cache of 4 while recording, with a second thread
+     * waiting for the load of the first key, and counts the events by name.
+     */
+    private static Map<String, Integer> record(ReadThroughCacheFactory cacheFactory)
+            throws IOException, InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ReadThroughCache<Integer, Integer> cache = cacheFactory.build(4, (Integer x) -> {
+            if (x == 0) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return x * x;
+        });
+
+        final Path file = Files.createTempFile("cache-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : new String[] { CacheEvents.LOAD, CacheEvents.WAIT, CacheEvents.EVICTION,
+                    CacheEvents.SCAN }) {
+                recording.enable(event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+
+            final Thread loader = new Thread(() -> cache.apply(0));
+            loader.start();
+            started.await();
+            final Thread waiter = new Thread(() -> cache.apply(0));
+            waiter.start();
+            while (waiter.getState() != Thread.State.WAITING) {
+                Thread.yield();
+            }
+            release.countDown();
+            loader.join();
+            waiter.join();
+            for (int i = 1; i < 8; i++) {
+                cache.apply(i);
+            }
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        final Map<String, Integer> counts = new HashMap<>();
+        try {
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            for (RecordedEvent event : events) {
+                assertTrue(event.getString("cache").startsWith(cache.getClass().getSimpleName()));
+                counts.merge(event.getEventType().getName(), 1, Integer::sum);
+            }
+        } finally {
+            Files.delete(file);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,66 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.function.Function;
+
+import org.openjdk.jol.info.GraphLayout;
+
+public class CompactLRUCacheTest extends AbstractReadThroughCacheTest {
+
+    @Override
+    public ReadThroughCache<Integer, Integer> buildCache(Function<Integer, Integer> missingValueFactory, int capacity) {
+        return new CompactLRUCache<>(capacity, missingValueFactory);
+    }
+
+    /**
+     * Keys whose hashes collide in the table, so invalidations have to move
+     * the rest of the run back.
+     */
+    @Test public void testInvalidateCollidingKeys() {
+        final CompactLRUCache<Integer, Integer> cache = new CompactLRUCache<>(64, missingValueFactory);
+        for (int i = 0; i < 64; i++) {
+            cache.apply(i * 128);
+        }
+        for (int i = 0; i < 64; i += 3) {
+            assertTrue(cache.invalidate(i * 128));
+        }
+        for (int i = 0; i < 64; i++) {
+            final Integer value = cache.getIfPresent(i * 128);
+            if (i % 3 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals(Integer.valueOf(i * 128 * i * 128), value);
+            }
+        }
+    }
+
+    /**
+     * Reports the bytes used per entry by the cache itself, without the keys
+     * and values, compared with SynchronizedLRUCache.
+     */
+    @Test public void testFootprint() {
+        final int capacity = 10_000;
+        final Integer value = 42;
+        final Integer[] keys = new Integer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            keys[i] = i;
+        }
+        final double synchronizedBytes = bytesPerEntry(new SynchronizedLRUCache<>(capacity, (key) -> value), keys,
+                value);
+        final double compactBytes = bytesPerEntry(new CompactLRUCache<>(capacity, (key) -> value), keys, value);
+        System.out.println(String.format("bytes per entry: synchronized %.1f, compact %.1f", synchronizedBytes,
+                compactBytes));
+        assertTrue(compactBytes * 2 < synchronizedBytes);
+    }
+
+    private static double bytesPerEntry(ReadThroughCache<Integer, Integer> cache, Integer[] keys, Integer value) {
+        for (Integer key : keys) {
+            cache.apply(key);
+        }
+        final GraphLayout layout = GraphLayout.parseInstance(cache)
+                .subtract(GraphLayout.parseInstance(keys, value));
+        return (double) layout.totalSize() / keys.length;
+    }
+}
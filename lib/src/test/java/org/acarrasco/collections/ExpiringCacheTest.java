@@ -0,0 +1,146 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+public class ExpiringCacheTest extends AbstractReadThroughCacheTest {
+
+    /**
+     * Nothing expires while the generic tests run.
+     */
+    @Override
+    public ReadThroughCache<Integer, Integer> buildCache(Function<Integer, Integer> missingValueFactory, int capacity) {
+        return new ExpiringCache<>(capacity, missingValueFactory, SynchronizedLRUCache::new, Duration.ofHours(1),
+                Duration.ofHours(1));
+    }
+
+    @Test public void testExpireAfterWrite() {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(10, (x) -> {
+            loads.incrementAndGet();
+            return x * x;
+        }, LockFreeLRUCache::new, Duration.ofSeconds(1), null, time::get, null);
+
+        assertEquals(Integer.valueOf(4), cache.apply(2));
+        time.addAndGet(Duration.ofMillis(900).toNanos());
+        assertEquals(Integer.valueOf(4), cache.apply(2));
+        assertEquals(1, loads.get());
+
+        // reading doesn't extend the life of the entry
+        time.addAndGet(Duration.ofMillis(100).toNanos());
+        assertNull(cache.getIfPresent(2));
+        assertEquals(Integer.valueOf(4), cache.apply(2));
+        assertEquals(2, loads.get());
+    }
+
+    @Test public void testExpireAfterAccess() {
+        final AtomicLong time = new AtomicLong();
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(10, (x) -> x * x,
+                SynchronizedLRUCache::new, null, Duration.ofSeconds(1), time::get, null);
+
+        cache.apply(1);
+        cache.apply(2);
+        // the key 1 is read every half second, so only the key 2 expires
+        for (int i = 0; i < 10; i++) {
+            time.addAndGet(Duration.ofMillis(500).toNanos());
+            assertEquals(Integer.valueOf(1), cache.apply(1));
+        }
+        assertNull(cache.getIfPresent(2));
+        assertEquals(1, cache.stream().count());
+    }
+
+    @Test public void testCleanUpRemovesUnreadEntriesOfAllBuckets() {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger invalidations = new AtomicInteger();
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(64, (x) -> x * x,
+                MappedCache.factory(8, LockFreeLRUCache::new), Duration.ofMinutes(1), null, time::get, null);
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onInvalidation(Integer key, Integer value) {
+                invalidations.incrementAndGet();
+            }
+        });
+
+        for (int i = 0; i < 32; i++) {
+            cache.apply(i);
+        }
+        time.addAndGet(Duration.ofSeconds(30).toNanos());
+        for (int i = 32; i < 48; i++) {
+            cache.apply(i);
+        }
+        time.addAndGet(Duration.ofSeconds(31).toNanos());
+        cache.cleanUp();
+        assertEquals(32, invalidations.get());
+        assertEquals(16, cache.stream().count());
+
+        time.addAndGet(Duration.ofSeconds(30).toNanos());
+        cache.cleanUp();
+        assertEquals(48, invalidations.get());
+        assertEquals(0, cache.stream().count());
+    }
+
+    @Test public void testConcurrentEventsAreAppliedByCleanUp() throws InterruptedException {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger invalidations = new AtomicInteger();
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(64, (x) -> x * x,
+                MappedCache.factory(8, LockFreeLRUCache::new), Duration.ofSeconds(1), null, time::get, null);
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onInvalidation(Integer key, Integer value) {
+                invalidations.incrementAndGet();
+            }
+        });
+
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    final int key = (i * 13 + offset) % 256;
+                    assertEquals(Integer.valueOf(key * key), cache.apply(key));
+                    if (i % 7 == 0) {
+                        cache.invalidate(key);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // only the entries still cached are scheduled, and all of them expire
+        final long cached = cache.stream().count();
+        invalidations.set(0);
+        time.addAndGet(Duration.ofSeconds(2).toNanos());
+        cache.cleanUp();
+        assertEquals(cached, invalidations.get());
+        assertEquals(0, cache.stream().count());
+    }
+
+    @Test public void testReadersAdvanceTheWheel() {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger invalidations = new AtomicInteger();
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(10, (x) -> x * x,
+                SynchronizedLRUCache::new, Duration.ofSeconds(1), null, time::get, null);
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onInvalidation(Integer key, Integer value) {
+                invalidations.incrementAndGet();
+            }
+        });
+
+        cache.apply(1);
+        time.addAndGet(Duration.ofSeconds(2).toNanos());
+        // reading another key removes the expired one
+        cache.apply(2);
+        assertEquals(1, invalidations.get());
+        assertEquals(1, cache.stream().count());
+    }
+}
@@ -3,6 +3,9 @@ package org.acarrasco.collections;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class FixedLinkedListTest {
     
     @Test public void testConstructor() {
@@ -85,4 +88,61 @@ public class FixedLinkedListTest {
             list.add(4);
         });
     }
+
+    @Test public void testGrow() {
+        final FixedLinkedList<Integer> list = new FixedLinkedList<>(2);
+        list.add(1);
+        list.add(2);
+        list.resize(4);
+        list.add(3);
+        list.add(4);
+        assertEquals(4, list.capacity());
+        assertEquals("FixedLinkedList([1, 2, 3, 4, ])", list.toString());
+    }
+
+    @Test public void testShrinkMovesNodes() {
+        final FixedLinkedList<Integer> list = new FixedLinkedList<>(6);
+        final List<FixedLinkedList<Integer>.Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            nodes.add(list.add(i));
+        }
+        // leaves holes at the start, so the last nodes have to be moved
+        nodes.get(0).remove();
+        nodes.get(1).remove();
+        nodes.get(3).remove();
+        list.resize(3);
+        assertEquals(3, list.capacity());
+        assertEquals("FixedLinkedList([2, 4, 5, ])", list.toString());
+
+        // the nodes held before resizing are still valid
+        nodes.get(5).remove();
+        list.add(6);
+        nodes.get(2).remove();
+        list.addFirst(7);
+        assertEquals("FixedLinkedList([7, 4, 6, ])", list.toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> {
+            list.add(8);
+        });
+    }
+
+    @Test public void testShrinkSingleNode() {
+        final FixedLinkedList<Integer> list = new FixedLinkedList<>(4);
+        final FixedLinkedList<Integer>.Node first = list.add(1);
+        final FixedLinkedList<Integer>.Node last = list.add(2);
+        first.remove();
+        list.resize(1);
+        assertSame(last, list.head());
+        assertSame(last, last.getNext());
+        assertSame(last, last.getPrevious());
+        assertEquals("FixedLinkedList([2, ])", list.toString());
+    }
+
+    @Test public void testShrinkBelowSize() {
+        final FixedLinkedList<Integer> list = new FixedLinkedList<>(3);
+        list.add(1);
+        list.add(2);
+        assertThrows(IllegalStateException.class, () -> {
+            list.resize(1);
+        });
+    }
 }
@@ -0,0 +1,39 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.stream.IntStream;
+
+public class HitRatioSimulatorTest {
+
+    @Test public void testWorkingSetFitsInCache() {
+        final HitRatioSimulator<Integer> simulator = new HitRatioSimulator<>(HitRatioSimulator.defaultPolicies(), 64);
+        for (int loop = 0; loop < 10; loop++) {
+            simulator.run(IntStream.range(0, 16).iterator());
+        }
+        assertEquals(160, simulator.requests());
+        for (HitRatioSimulator<Integer>.Simulation simulation : simulator.simulations()) {
+            assertEquals(simulation.policy(), 16, simulation.misses());
+            assertEquals(simulation.policy(), 144, simulation.hits());
+        }
+    }
+
+    @Test public void testCyclicTraceLargerThanCapacity() {
+        final HitRatioSimulator<Integer> simulator = new HitRatioSimulator<>(HitRatioSimulator.defaultPolicies(), 16,
+                32);
+        for (int loop = 0; loop < 10; loop++) {
+            simulator.run(IntStream.range(-10, 7).iterator());
+        }
+        for (HitRatioSimulator<Integer>.Simulation simulation : simulator.simulations()) {
+            if (simulation.capacity() == 16 && !simulation.policy().equals("mapped")
+                    && !simulation.policy().equals("segmented")) {
+                // LRU always evicts the key that is going to be used next
+                assertEquals(simulation.policy(), 0, simulation.hits());
+            }
+            if (simulation.capacity() == 32) {
+                assertEquals(simulation.policy(), 17, simulation.misses());
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class InstrumentedCacheTest {
+
+    @Test public void testStats() {
+        final InstrumentedCache<Integer, Integer> cache = new InstrumentedCache<>(10, (x) -> x * x,
+                SynchronizedLRUCache::new, null);
+        for (int loop = 0; loop < 4; loop++) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(Integer.valueOf(i * i), cache.apply(i));
+            }
+        }
+        final CacheStats stats = cache.stats();
+        assertEquals(40, stats.requests());
+        assertEquals(10, stats.misses());
+        assertEquals(0.75, stats.hitRatio(), 1e-9);
+        assertNull(stats.missRatioCurve());
+    }
+
+    @Test public void testMissRatioCurve() {
+        final InstrumentedCache<Integer, Integer> cache = new InstrumentedCache<>(10, (x) -> x * x,
+                LockFreeLRUCache::new, new ReuseDistanceSampler<>(1, 100, 5, 10));
+        for (int loop = 0; loop < 4; loop++) {
+            for (int i = 0; i < 20; i++) {
+                cache.apply(i);
+            }
+        }
+        final CacheStats stats = cache.stats();
+        assertEquals(0, stats.hits());
+        // doubling the capacity would only leave the cold misses
+        assertEquals(1, stats.missRatioCurve().missRatio(10), 0);
+        assertEquals(0.25, stats.missRatioCurve().missRatio(20), 1e-9);
+    }
+}
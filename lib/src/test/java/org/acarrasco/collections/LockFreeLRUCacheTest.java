@@ -1,5 +1,10 @@
 package org.acarrasco.collections;
 
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 
@@ -9,4 +14,38 @@ public class LockFreeLRUCacheTest extends AbstractReadThroughCacheTest {
     public ReadThroughCache<Integer, Integer> buildCache(Function<Integer, Integer> missingValueFactory, int capacity) {
         return new LockFreeLRUCache<>(capacity, missingValueFactory);
     }
+
+    @Test public void testShrinkWaitsForTheLoadsInFlight() throws InterruptedException {
+        final CountDownLatch loading = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LockFreeLRUCache<Integer, Integer> cache = new LockFreeLRUCache<>(2, (x) -> {
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return x * x;
+        });
+        final Thread first = new Thread(() -> cache.apply(1));
+        final Thread second = new Thread(() -> cache.apply(2));
+        first.start();
+        second.start();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        // both slots are being loaded, so neither can be evicted yet
+        final Thread resize = new Thread(() -> cache.setMaximumSize(1));
+        resize.start();
+        resize.join(100);
+        assertTrue(resize.isAlive());
+        assertEquals(Thread.State.WAITING, resize.getState());
+
+        release.countDown();
+        resize.join(10000);
+        assertFalse(resize.isAlive());
+        first.join();
+        second.join();
+        assertEquals(1, cache.maximumSize());
+        assertEquals(1, cache.stream().count());
+    }
 }
@@ -3,7 +3,14 @@ package org.acarrasco.collections;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.time.Duration;
 import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class MappedCacheTest {
 
@@ -24,4 +31,187 @@ public class MappedCacheTest {
         assertEquals(expected, result);
     }
 
+    @Test public void testParallelStream() {
+        MappedCache<Integer, Integer> cache = new MappedCache<>(64, 16, (x) -> x * x, LockFreeLRUCache::new);
+        for (int i = 0; i < 1024; i++) {
+            cache.apply(i);
+        }
+        HashSet<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 1024; i++) {
+            expected.add(i * i);
+        }
+        assertEquals(expected, cache.parallelStream().map(Entry::getValue).collect(Collectors.toSet()));
+        assertEquals(1024, cache.parallelStream().count());
+    }
+
+    @Test public void testSetBucketCountMovesEntries() {
+        final AtomicInteger loads = new AtomicInteger();
+        final MappedCache<Integer, Integer> cache = new MappedCache<>(4, 4, (x) -> {
+            loads.incrementAndGet();
+            return x * x;
+        }, LockFreeLRUCache::new);
+        for (int i = 0; i < 16; i++) {
+            cache.apply(i);
+        }
+        cache.setBucketCount(8);
+        assertEquals(8, cache.bucketCount());
+        assertEquals(32, cache.maximumSize());
+
+        // the old keys are moved instead of computed, and the new ones fit
+        for (int i = 0; i < 32; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+        assertEquals(32, loads.get());
+        for (int i = 0; i < 32; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.getIfPresent(i));
+        }
+        assertEquals(32, cache.stream().count());
+    }
+
+    @Test public void testInvalidateWhileMoving() {
+        final MappedCache<Integer, Integer> cache = new MappedCache<>(2, 8, (x) -> x * x,
+                SynchronizedLRUCache::new);
+        for (int i = 0; i < 16; i++) {
+            cache.apply(i);
+        }
+        cache.setBucketCount(3);
+        assertTrue(cache.invalidate(5));
+        assertFalse(cache.invalidate(5));
+        assertNull(cache.getIfPresent(5));
+        assertEquals(15, cache.stream().count());
+    }
+
+    @Test public void testSetMaximumSize() {
+        final MappedCache<Integer, Integer> cache = new MappedCache<>(4, 4, (x) -> x * x,
+                SynchronizedLRUCache::new);
+        for (int i = 0; i < 16; i++) {
+            cache.apply(i);
+        }
+        cache.setMaximumSize(8);
+        assertEquals(8, cache.maximumSize());
+        assertEquals(8, cache.stream().count());
+        cache.setMaximumSize(64);
+        for (int i = 0; i < 64; i++) {
+            cache.apply(i);
+        }
+        assertEquals(64, cache.stream().count());
+    }
+
+    @Test public void testSetBucketCountWhileInUse() throws InterruptedException {
+        final MappedCache<Integer, Integer> cache = new MappedCache<>(2, 16, (x) -> x * x, LockFreeLRUCache::new);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> AbstractReadThroughCacheTest.testMultiThreadedRandomKeys(cache, 256, 1,
+                    20000 + seed));
+            threads[t].start();
+        }
+        for (int bucketCount : new int[] { 3, 8, 5, 16, 1 }) {
+            cache.setBucketCount(bucketCount);
+            Thread.sleep(5);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // finish the last migration
+        for (int i = 0; i < 1000; i++) {
+            cache.apply(i % 16);
+        }
+        assertEquals(16, cache.maximumSize());
+        assertEquals(16, cache.stream().count());
+        for (Entry<Integer, Integer> entry : cache) {
+            assertEquals(Integer.valueOf(entry.key * entry.key), entry.value);
+        }
+    }
+
+    @Test public void testSetBucketCountWhileLoading() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final MappedCache<Integer, Integer> cache = new MappedCache<>(2, 4, (x) -> {
+            if (loads.incrementAndGet() == 1) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return x * x;
+        }, SynchronizedLRUCache::new);
+        final AtomicInteger resident = new AtomicInteger();
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onLoad(Integer key, Integer value) {
+                resident.incrementAndGet();
+            }
+
+            @Override
+            public void onInvalidation(Integer key, Integer value) {
+                resident.decrementAndGet();
+            }
+        });
+
+        final Thread first = new Thread(() -> assertEquals(Integer.valueOf(49), cache.apply(7)));
+        first.start();
+        while (loads.get() == 0) {
+            Thread.yield();
+        }
+        cache.setBucketCount(3);
+        final Thread second = new Thread(() -> assertEquals(Integer.valueOf(49), cache.apply(7)));
+        second.start();
+        // the second thread waits for the load of the first one in its previous bucket
+        second.join(100);
+        assertEquals(1, loads.get());
+        release.countDown();
+        first.join();
+        second.join();
+        // finish the migration
+        for (int i = 0; i < 8; i++) {
+            cache.apply(7);
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, resident.get());
+        assertEquals(1, cache.stream().count());
+    }
+
+    @Test public void testMovesDoNotResetTheExpiration() {
+        final AtomicLong time = new AtomicLong();
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger invalidations = new AtomicInteger();
+        final AtomicReference<MappedCache<?, ?>> mapped = new AtomicReference<>();
+        final ExpiringCache<Integer, Integer> cache = new ExpiringCache<>(16, (x) -> {
+            loads.incrementAndGet();
+            return x * x;
+        }, new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                final MappedCache<K, V> bucketed = new MappedCache<>(2, capacity / 2, missingValueFactory,
+                        LockFreeLRUCache::new);
+                mapped.set(bucketed);
+                return bucketed;
+            }
+        }, Duration.ofSeconds(1), null, time::get, null);
+        cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onInvalidation(Integer key, Integer value) {
+                invalidations.incrementAndGet();
+            }
+        });
+
+        for (int i = 0; i < 8; i++) {
+            cache.apply(i);
+        }
+        time.addAndGet(Duration.ofMillis(900).toNanos());
+        mapped.get().setBucketCount(4);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+        assertEquals(8, loads.get());
+        assertEquals(0, invalidations.get());
+
+        // the moved entries still expire a second after they were loaded
+        time.addAndGet(Duration.ofMillis(100).toNanos());
+        for (int i = 0; i < 8; i++) {
+            assertNull(cache.getIfPresent(i));
+        }
+    }
 }
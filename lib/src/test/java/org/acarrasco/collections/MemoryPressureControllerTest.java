@@ -0,0 +1,101 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.management.Notification;
+
+public class MemoryPressureControllerTest {
+
+    private static final Function<Integer, Integer> IDENTITY = (x) -> x;
+
+    @Test public void testShedEvictsColdestAndRestoreGrowsBack() {
+        final LockFreeLRUCache<Integer, Integer> cache = new LockFreeLRUCache<>(100, IDENTITY);
+        for (int i = 0; i < 100; i++) {
+            cache.apply(i);
+        }
+        try (MemoryPressureController controller = new MemoryPressureController(0.25, 0.85, 0.6)) {
+            controller.register(cache);
+
+            controller.shed();
+            assertEquals(75, cache.maximumSize());
+            assertEquals(75, cache.stream().count());
+            // the most recent entries are kept
+            assertNotNull(cache.getIfPresent(99));
+            assertNull(cache.getIfPresent(0));
+
+            controller.shed();
+            controller.shed();
+            controller.shed();
+            controller.shed();
+            assertEquals(1, cache.maximumSize());
+
+            controller.restore();
+            assertEquals(26, cache.maximumSize());
+            for (int i = 0; i < 10; i++) {
+                controller.restore();
+            }
+            assertEquals(100, cache.maximumSize());
+        }
+    }
+
+    @Test public void testUnregisterRestoresSize() {
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(40, IDENTITY);
+        try (MemoryPressureController controller = new MemoryPressureController(0.5, 0.85, 0.6)) {
+            controller.register(cache);
+            controller.shed();
+            assertEquals(20, cache.maximumSize());
+            controller.unregister(cache);
+            assertEquals(40, cache.maximumSize());
+            controller.shed();
+            assertEquals(40, cache.maximumSize());
+        }
+    }
+
+    @Test public void testStartAndClose() {
+        final MemoryPressureController controller = new MemoryPressureController();
+        controller.start();
+        final double occupancy = MemoryPressureController.heapOccupancy();
+        assertTrue(occupancy >= 0 && occupancy <= 1);
+        controller.close();
+    }
+
+    @Test public void testCloseRestoresThresholds() {
+        final List<Long> before = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.isUsageThresholdSupported()) {
+                // disabled, as before anything sets it
+                pool.setUsageThreshold(0);
+            }
+            before.add(pool.isUsageThresholdSupported() ? pool.getUsageThreshold() : -1);
+        }
+        final MemoryPressureController controller = new MemoryPressureController();
+        controller.start();
+        controller.close();
+        final List<Long> after = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            after.add(pool.isUsageThresholdSupported() ? pool.getUsageThreshold() : -1);
+        }
+        assertEquals(before, after);
+    }
+
+    @Test public void testNotificationAfterClose() {
+        final MemoryPressureController controller = new MemoryPressureController();
+        controller.start();
+        controller.close();
+        // a notification that was being delivered while closing is ignored
+        controller.handleNotification(
+                new Notification(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, "test", 1), null);
+    }
+
+    @Test public void testInvalidFractions() {
+        assertThrows(IllegalArgumentException.class, () -> new MemoryPressureController(0.25, 0.5, 0.6));
+    }
+}
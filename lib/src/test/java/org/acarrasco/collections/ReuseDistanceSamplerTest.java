@@ -0,0 +1,43 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ReuseDistanceSamplerTest {
+
+    @Test public void testCyclicTraceFullySampled() {
+        final ReuseDistanceSampler<Integer> sampler = new ReuseDistanceSampler<>(1, 1000, 10, 20);
+        for (int loop = 0; loop < 10; loop++) {
+            for (int i = 0; i < 100; i++) {
+                sampler.access(i);
+            }
+        }
+        final MissRatioCurve curve = sampler.curve();
+        assertEquals(1, curve.missRatio(0), 0);
+        assertEquals(1, curve.missRatio(90), 0);
+        // only the cold misses are left when every key fits in the cache
+        assertEquals(0.1, curve.missRatio(100), 1e-9);
+        assertEquals(0.1, curve.missRatio(1000), 1e-9);
+    }
+
+    @Test public void testCyclicTraceSampled() {
+        final ReuseDistanceSampler<Integer> sampler = new ReuseDistanceSampler<>(0.1, 10000, 1000, 50);
+        for (int loop = 0; loop < 20; loop++) {
+            for (int i = 0; i < 20000; i++) {
+                sampler.access(i);
+            }
+        }
+        final MissRatioCurve curve = sampler.curve();
+        assertEquals(1, curve.missRatio(15000), 0.01);
+        assertEquals(0.05, curve.missRatio(25000), 0.01);
+    }
+
+    @Test public void testTrackedKeysAreBounded() {
+        final ReuseDistanceSampler<Integer> sampler = new ReuseDistanceSampler<>(1, 100, 10, 10);
+        for (int i = 0; i < 100000; i++) {
+            sampler.access(i % 5000);
+        }
+        assertTrue(sampler.samplingRate() < 0.05);
+        assertEquals(1, sampler.curve().missRatio(1000), 0.01);
+    }
+}
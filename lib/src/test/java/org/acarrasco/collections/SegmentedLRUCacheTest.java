@@ -0,0 +1,146 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class SegmentedLRUCacheTest extends AbstractReadThroughCacheTest {
+
+    @Override
+    public ReadThroughCache<Integer, Integer> buildCache(Function<Integer, Integer> missingValueFactory, int capacity) {
+        return SynchronizedLRUCache.segmented(0.8).build(capacity, missingValueFactory);
+    }
+
+    @Test public void testScanDoesNotEvictProtectedKeys() {
+        final AtomicInteger loads = new AtomicInteger();
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(100, (x) -> {
+            loads.incrementAndGet();
+            return x * x;
+        }, 80);
+        for (int loop = 0; loop < 2; loop++) {
+            for (int i = 0; i < 80; i++) {
+                cache.apply(i);
+            }
+        }
+        assertEquals(80, loads.get());
+
+        // a scan much bigger than the cache only goes through probation
+        for (int i = 1000; i < 11000; i++) {
+            cache.apply(i);
+        }
+        loads.set(0);
+        for (int i = 0; i < 80; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+        assertEquals(0, loads.get());
+    }
+
+    @Test public void testDemotedKeysAreEvictedFirst() {
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(4, (x) -> x * x, 2);
+        for (int i = 0; i < 3; i++) {
+            cache.apply(i);
+            cache.apply(i);
+        }
+        // 0 was demoted when 2 was promoted, and is the next one to be evicted
+        cache.apply(3);
+        cache.apply(4);
+        final HashSet<Integer> expected = new HashSet<>();
+        expected.add(1);
+        expected.add(2);
+        expected.add(3);
+        expected.add(4);
+        assertEquals(expected, cache.stream().map(Entry::getKey).collect(Collectors.toSet()));
+        // promoting 3 demotes 1, behind 4
+        assertNotNull(cache.getIfPresent(3));
+        cache.apply(5);
+        cache.apply(6);
+        expected.clear();
+        expected.add(2);
+        expected.add(3);
+        expected.add(5);
+        expected.add(6);
+        assertEquals(expected, cache.stream().map(Entry::getKey).collect(Collectors.toSet()));
+    }
+
+    @Test public void testResizingKeepsTheProtectedRatio() {
+        final AtomicInteger loads = new AtomicInteger();
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(100, (x) -> {
+            loads.incrementAndGet();
+            return x * x;
+        }, 80);
+        for (int i = 0; i < 5; i++) {
+            cache.setMaximumSize(7);
+            cache.setMaximumSize(100);
+        }
+        for (int loop = 0; loop < 2; loop++) {
+            for (int i = 0; i < 80; i++) {
+                cache.apply(i);
+            }
+        }
+        for (int i = 1000; i < 2000; i++) {
+            cache.apply(i);
+        }
+        // the protected segment is back to 80 entries
+        loads.set(0);
+        for (int i = 0; i < 80; i++) {
+            cache.apply(i);
+        }
+        assertEquals(0, loads.get());
+    }
+
+    @Test public void testProtectedCapacityMustBeLessThanCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new SynchronizedLRUCache<>(4, (Integer x) -> x, 4));
+    }
+
+    @Test public void testHitsWhileIteratingDoNotRepeatEntries() {
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(10, (x) -> x * x, 5);
+        for (int i = 0; i < 10; i++) {
+            cache.apply(i);
+        }
+        final Iterator<Entry<Integer, Integer>> iterator = cache.iterator();
+        final List<Integer> keys = new ArrayList<>();
+        keys.add(iterator.next().key);
+        // promotes the key to the protected segment, after the probation one
+        cache.apply(keys.get(0));
+        while (iterator.hasNext()) {
+            keys.add(iterator.next().key);
+        }
+        assertEquals(10, keys.size());
+        assertEquals(10, new HashSet<>(keys).size());
+    }
+
+    @Test public void testConcurrentIteration() throws InterruptedException {
+        final SynchronizedLRUCache<Integer, Integer> cache = new SynchronizedLRUCache<>(64, (x) -> x * x, 32);
+        for (int i = 0; i < 64; i++) {
+            cache.apply(i);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread hitter = new Thread(() -> {
+            final Random random = new Random(0);
+            while (!done.get()) {
+                // only hits, which move the keys between the segments
+                cache.apply(random.nextInt(64));
+            }
+        });
+        hitter.start();
+        try {
+            for (int loop = 0; loop < 1000; loop++) {
+                final List<Integer> keys = cache.parallelStream().map(Entry::getKey).collect(Collectors.toList());
+                assertEquals(64, keys.size());
+                assertEquals(64, new HashSet<>(keys).size());
+            }
+        } finally {
+            done.set(true);
+            hitter.join();
+        }
+    }
+}
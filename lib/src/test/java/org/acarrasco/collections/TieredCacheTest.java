@@ -0,0 +1,151 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class TieredCacheTest extends AbstractReadThroughCacheTest {
+
+    /**
+     * Without near caches in the way, so the generic tests see a plain LRU cache.
+     */
+    @Override
+    public ReadThroughCache<Integer, Integer> buildCache(Function<Integer, Integer> missingValueFactory, int capacity) {
+        return new TieredCache<>(1, 1, capacity, missingValueFactory, SynchronizedLRUCache::new,
+                TieredCache.Mode.INCLUSIVE, Integer.MAX_VALUE);
+    }
+
+    @Test public void testInclusivePromotion() {
+        final TieredCache<Integer, Integer> cache = new TieredCache<>(1, 4, 16, (x) -> x * x,
+                MappedCache.factory(4, SynchronizedLRUCache::new), TieredCache.Mode.INCLUSIVE, 2);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i * i), cache.apply(i));
+        }
+        assertEquals(0, cache.nearStats().hits());
+        assertEquals(8, cache.farStats().requests());
+        assertEquals(8, cache.farStats().misses());
+
+        // the second request promotes the key, the third one is a near hit
+        cache.apply(1);
+        cache.apply(1);
+        assertEquals(1, cache.nearStats().hits());
+        assertEquals(9, cache.farStats().requests());
+        assertEquals(8, cache.farStats().misses());
+        assertEquals(2, cache.stream().filter((entry) -> entry.key == 1).count());
+
+        assertTrue(cache.invalidate(1));
+        assertNull(cache.getIfPresent(1));
+    }
+
+    @Test public void testExclusiveDemotion() {
+        final AtomicInteger loads = new AtomicInteger();
+        final TieredCache<Integer, Integer> cache = new TieredCache<>(1, 2, 4, (x) -> {
+            loads.incrementAndGet();
+            return x * x;
+        }, SynchronizedLRUCache::new, TieredCache.Mode.EXCLUSIVE, 1);
+
+        // both levels together hold 6 keys
+        for (int loop = 0; loop < 3; loop++) {
+            for (int i = 0; i < 6; i++) {
+                assertEquals(Integer.valueOf(i * i), cache.apply(i));
+            }
+        }
+        assertEquals(6, loads.get());
+        final HashSet<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            expected.add(i);
+        }
+        assertEquals(6, cache.stream().count());
+        assertEquals(expected, cache.stream().map(Entry::getKey).collect(Collectors.toSet()));
+    }
+
+    /**
+     * With promotions, so the near caches take part. The generic tests that
+     * expect an exact capacity or exact events don't apply to both levels.
+     */
+    private static TieredCache<Integer, Integer> promotingCache(Function<Integer, Integer> missingValueFactory,
+            int capacity, TieredCache.Mode mode) {
+        return new TieredCache<>(2, 4, capacity, missingValueFactory, SynchronizedLRUCache::new, mode, 2);
+    }
+
+    @Test public void testPromotingMultiThreadedRandomKeys() {
+        for (TieredCache.Mode mode : TieredCache.Mode.values()) {
+            AbstractReadThroughCacheTest.testMultiThreadedRandomKeys(promotingCache(missingValueFactory, 100, mode),
+                    500, 8, 500);
+        }
+    }
+
+    @Test public void testPromotingSlowLoad() throws InterruptedException {
+        for (TieredCache.Mode mode : TieredCache.Mode.values()) {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final ReadThroughCache<Integer, Integer> cache = promotingCache((x) -> {
+                if (x == 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return x * x;
+            }, 10, mode);
+            AbstractReadThroughCacheTest.testSlowLoad(cache, 10, started, release);
+        }
+    }
+
+    /**
+     * All the keys fit, so none is lost or loaded twice while moving between
+     * the levels.
+     */
+    @Test public void testPromotingMultiThreadedFitting() throws InterruptedException {
+        for (TieredCache.Mode mode : TieredCache.Mode.values()) {
+            final AtomicInteger loads = new AtomicInteger();
+            final TieredCache<Integer, Integer> cache = promotingCache((x) -> {
+                loads.incrementAndGet();
+                return x * x;
+            }, 64, mode);
+            final Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                final int offset = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        final int key = (i * 7 + offset) % 64;
+                        assertEquals(Integer.valueOf(key * key), cache.apply(key));
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(64, loads.get());
+            for (int i = 0; i < 64; i++) {
+                assertEquals(Integer.valueOf(i * i), cache.getIfPresent(i));
+            }
+        }
+    }
+
+    @Test public void testExclusiveGetIfPresentFromOtherNearCache() throws InterruptedException {
+        final TieredCache<Integer, Integer> cache = new TieredCache<>(2, 2, 1, (x) -> x * x,
+                SynchronizedLRUCache::new, TieredCache.Mode.EXCLUSIVE, 1);
+        assertEquals(Integer.valueOf(4), cache.apply(2));
+        assertEquals(1, cache.stream().count());
+
+        // a thread assigned to the other near cache
+        final AtomicReference<Integer> read = new AtomicReference<>();
+        Thread other = new Thread(() -> read.set(cache.getIfPresent(2)));
+        if (other.threadId() % 2 == Thread.currentThread().threadId() % 2) {
+            other = new Thread(() -> read.set(cache.getIfPresent(2)));
+        }
+        other.start();
+        other.join();
+        assertEquals(Integer.valueOf(4), read.get());
+    }
+}
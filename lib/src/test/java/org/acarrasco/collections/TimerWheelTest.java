@@ -0,0 +1,82 @@
+package org.acarrasco.collections;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TimerWheelTest {
+
+    private static final long START = 123_456_789L;
+
+    @Test public void testFiresInOrderAcrossLevels() {
+        final TimerWheel<Integer> wheel = new TimerWheel<>(START);
+        // from a millisecond to a few days, so every level is used
+        final long[] delays = { TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(50),
+                TimeUnit.SECONDS.toNanos(2), TimeUnit.MINUTES.toNanos(3), TimeUnit.HOURS.toNanos(2),
+                TimeUnit.DAYS.toNanos(3), TimeUnit.DAYS.toNanos(30) };
+        for (int i = 0; i < delays.length; i++) {
+            wheel.schedule(new TimerWheel.Timer<>(i), START + delays[i]);
+        }
+        assertEquals(delays.length, wheel.size());
+
+        final List<Integer> fired = new ArrayList<>();
+        final long step = TimeUnit.MILLISECONDS.toNanos(7);
+        for (int i = 0; i < delays.length; i++) {
+            // advance in small steps up to the deadline, and a bit further
+            final long deadline = START + delays[i];
+            long now = i == 0 ? START : START + delays[i - 1];
+            final long jump = Math.max(step, (deadline - now) / 1000);
+            while (now < deadline) {
+                now = Math.min(deadline, now + jump);
+                wheel.advance(now, (timer) -> {
+                    assertTrue(timer.deadline <= deadline);
+                    fired.add(timer.key);
+                });
+            }
+            wheel.advance(deadline + TimeUnit.MILLISECONDS.toNanos(2), (timer) -> fired.add(timer.key));
+            assertEquals(i + 1, fired.size());
+            assertEquals(Integer.valueOf(i), fired.get(i));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test public void testBigJumpFiresEverythingDue() {
+        final TimerWheel<Integer> wheel = new TimerWheel<>(START);
+        for (int i = 0; i < 1000; i++) {
+            wheel.schedule(new TimerWheel.Timer<>(i), START + TimeUnit.MILLISECONDS.toNanos(i * 17));
+        }
+        final List<Integer> fired = new ArrayList<>();
+        wheel.advance(START + TimeUnit.MILLISECONDS.toNanos(500 * 17), (timer) -> fired.add(timer.key));
+        assertEquals(501, fired.size());
+        assertEquals(499, wheel.size());
+    }
+
+    @Test public void testPastDeadlineFiresOnNextAdvance() {
+        final TimerWheel<Integer> wheel = new TimerWheel<>(START);
+        wheel.schedule(new TimerWheel.Timer<>(1), START - 1000);
+        final List<Integer> fired = new ArrayList<>();
+        wheel.advance(START + TimeUnit.MILLISECONDS.toNanos(2), (timer) -> fired.add(timer.key));
+        assertEquals(1, fired.size());
+    }
+
+    @Test public void testRescheduleAndDeschedule() {
+        final TimerWheel<Integer> wheel = new TimerWheel<>(START);
+        final TimerWheel.Timer<Integer> moved = new TimerWheel.Timer<>(1);
+        final TimerWheel.Timer<Integer> removed = new TimerWheel.Timer<>(2);
+        wheel.schedule(moved, START + TimeUnit.MILLISECONDS.toNanos(10));
+        wheel.schedule(removed, START + TimeUnit.MILLISECONDS.toNanos(10));
+        wheel.schedule(moved, START + TimeUnit.SECONDS.toNanos(10));
+        wheel.deschedule(removed);
+        wheel.deschedule(removed);
+        assertEquals(1, wheel.size());
+
+        final List<Integer> fired = new ArrayList<>();
+        wheel.advance(START + TimeUnit.SECONDS.toNanos(1), (timer) -> fired.add(timer.key));
+        assertTrue(fired.isEmpty());
+        wheel.advance(START + TimeUnit.SECONDS.toNanos(11), (timer) -> fired.add(timer.key));
+        assertEquals(List.of(1), fired);
+    }
+}
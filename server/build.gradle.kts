@@ -0,0 +1,23 @@
+/*
+ * A standalone server that shares a cache between the JVMs of a host.
+ */
+
+plugins {
+    `java-library`
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    api(project(":lib"))
+
+    testImplementation(libs.junit)
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
@@ -0,0 +1,342 @@
+package org.acarrasco.collections.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.acarrasco.collections.ReadThroughCache;
+
+/**
+ * Serves a cache to other processes, so the JVMs of a host can share it and
+ * compute each missing value only once.
+ *
+ * Every request is handled by its own virtual thread, so a slow missing value
+ * factory only delays the requests that are waiting for it, even when they
+ * share a connection with others. Responses carry the id of their request
+ * and are written as soon as they are ready, and they are only flushed when
+ * no other response is waiting to be written, so the responses of pipelined
+ * requests are sent in batches.
+ */
+public class CacheServer<K, V> implements AutoCloseable {
+
+    private static final Logger LOGGER = System.getLogger(CacheServer.class.getName());
+
+    private final ReadThroughCache<K, V> cache;
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts serving the cache.
+     *
+     * @param address    The address to listen on, use port 0 to pick any free
+     *                   port.
+     * @param cache      The cache to serve, usually a MappedCache.
+     * @param keyCodec   The codec of the keys.
+     * @param valueCodec The codec of the values.
+     */
+    public CacheServer(InetSocketAddress address, ReadThroughCache<K, V> cache, Codec<K> keyCodec,
+            Codec<V> valueCodec) throws IOException {
+        this.cache = cache;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(address);
+        this.executor.execute(this::accept);
+    }
+
+    /**
+     * The address the server is listening on.
+     */
+    public InetSocketAddress address() {
+        return (InetSocketAddress) this.serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        for (Socket connection : this.connections) {
+            connection.close();
+        }
+        this.executor.shutdown();
+    }
+
+    private void accept() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                final Socket connection = this.serverSocket.accept();
+                connection.setTcpNoDelay(true);
+                this.connections.add(connection);
+                this.executor.execute(() -> serve(connection));
+            } catch (IOException e) {
+                // the server socket was closed
+            }
+        }
+    }
+
+    /**
+     * Reads the requests of a connection, and answers each of them from its
+     * own virtual thread.
+     */
+    private void serve(Socket socket) {
+        final Connection connection;
+        try {
+            connection = new Connection(socket);
+        } catch (IOException e) {
+            close(socket);
+            return;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            while (true) {
+                final Request request = readRequest(in);
+                this.executor.execute(() -> connection.send(handle(request)));
+            }
+        } catch (EOFException | SocketException | RejectedExecutionException e) {
+            // the connection was closed by the client or by the server
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Closing connection from " + socket.getRemoteSocketAddress(), e);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Reads a whole request without decoding its keys, so a failure to decode
+     * them never leaves unread bytes in the stream. A request that can't be
+     * read is a protocol error, which closes the connection.
+     */
+    private static Request readRequest(DataInputStream in) throws IOException {
+        final byte operation = in.readByte();
+        final int id = in.readInt();
+        final int count;
+        int size = 0;
+        switch (operation) {
+            case Protocol.GET:
+            case Protocol.PEEK:
+            case Protocol.INVALIDATE:
+                count = 1;
+                break;
+            case Protocol.MULTI_GET:
+                count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("Invalid key count " + count);
+                }
+                break;
+            case Protocol.MAXIMUM_SIZE:
+                count = 0;
+                break;
+            case Protocol.SET_MAXIMUM_SIZE:
+                count = 0;
+                size = in.readInt();
+                break;
+            default:
+                throw new IOException("Unknown operation " + operation);
+        }
+        // the count is not trusted for sizing, the keys may never arrive
+        final List<byte[]> keys = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            keys.add(Protocol.readBlob(in));
+        }
+        return new Request(operation, id, keys, size);
+    }
+
+    /**
+     * Runs a request against the cache, and encodes its response. Failures of
+     * the cache or the codecs are answered with an error.
+     */
+    private byte[] handle(Request request) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(request.id);
+            try {
+                respond(request, out);
+            } catch (RuntimeException e) {
+                bytes.reset();
+                out.writeInt(request.id);
+                out.writeByte(Protocol.ERROR);
+                out.writeUTF(String.valueOf(e));
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the status and results of a request. The results are computed
+     * before anything is written, so a failure can still be answered with an
+     * error.
+     */
+    private void respond(Request request, DataOutputStream out) throws IOException {
+        switch (request.operation) {
+            case Protocol.GET: {
+                final byte[] value = encode(this.cache.apply(decodeKey(request, 0)));
+                out.writeByte(Protocol.OK);
+                Protocol.writeBlob(out, value);
+                break;
+            }
+            case Protocol.PEEK: {
+                final V value = this.cache.getIfPresent(decodeKey(request, 0));
+                if (value == null) {
+                    out.writeByte(Protocol.NOT_FOUND);
+                } else {
+                    final byte[] bytes = encode(value);
+                    out.writeByte(Protocol.OK);
+                    Protocol.writeBlob(out, bytes);
+                }
+                break;
+            }
+            case Protocol.INVALIDATE: {
+                final boolean found = this.cache.invalidate(decodeKey(request, 0));
+                out.writeByte(Protocol.OK);
+                out.writeBoolean(found);
+                break;
+            }
+            case Protocol.MULTI_GET: {
+                final int count = request.keys.size();
+                final List<K> keys = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    keys.add(decodeKey(request, i));
+                }
+                final List<byte[]> values = new ArrayList<>(count);
+                for (K key : keys) {
+                    values.add(encode(this.cache.apply(key)));
+                }
+                out.writeByte(Protocol.OK);
+                out.writeInt(count);
+                for (byte[] value : values) {
+                    Protocol.writeBlob(out, value);
+                }
+                break;
+            }
+            case Protocol.MAXIMUM_SIZE: {
+                final int size = this.cache.maximumSize();
+                out.writeByte(Protocol.OK);
+                out.writeInt(size);
+                break;
+            }
+            case Protocol.SET_MAXIMUM_SIZE: {
+                this.cache.setMaximumSize(request.size);
+                out.writeByte(Protocol.OK);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown operation " + request.operation);
+        }
+    }
+
+    private byte[] encode(V value) {
+        return value == null ? null : this.valueCodec.encode(value);
+    }
+
+    private K decodeKey(Request request, int index) {
+        return this.keyCodec.decode(request.keys.get(index));
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already broken
+        }
+    }
+
+    /**
+     * A request read from a connection, with its keys still encoded.
+     */
+    private static class Request {
+        final byte operation;
+        final int id;
+        final List<byte[]> keys;
+
+        /**
+         * The argument of SET_MAXIMUM_SIZE.
+         */
+        final int size;
+
+        Request(byte operation, int id, List<byte[]> keys, int size) {
+            this.operation = operation;
+            this.id = id;
+            this.keys = keys;
+            this.size = size;
+        }
+    }
+
+    /**
+     * The output side of a connection, shared by the threads answering its
+     * requests.
+     */
+    private class Connection {
+        final Socket socket;
+        final DataOutputStream out;
+
+        /**
+         * Guards the output stream, so the responses are not interleaved.
+         */
+        final ReentrantLock writeLock = new ReentrantLock();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Writes a response, and flushes it unless another one is about to be
+         * written, so responses that are ready together are sent together.
+         */
+        void send(byte[] response) {
+            this.writeLock.lock();
+            try {
+                this.out.write(response);
+                if (!this.writeLock.hasQueuedThreads()) {
+                    this.out.flush();
+                }
+            } catch (IOException e) {
+                // the connection is broken, the reader will notice it
+                CacheServer.close(this.socket);
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        void close() {
+            this.writeLock.lock();
+            try {
+                CacheServer.close(this.socket);
+            } finally {
+                this.writeLock.unlock();
+            }
+            connections.remove(this.socket);
+        }
+    }
+}
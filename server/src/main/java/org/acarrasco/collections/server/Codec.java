@@ -0,0 +1,56 @@
+package org.acarrasco.collections.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts keys and values to and from the bytes sent over the wire.
+ */
+public interface Codec<T> {
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    static Codec<String> utf8() {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(String value) {
+                return value.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    static Codec<Integer> integers() {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(Integer value) {
+                return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+            }
+
+            @Override
+            public Integer decode(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getInt();
+            }
+        };
+    }
+
+    static Codec<Long> longs() {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(Long value) {
+                return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+            }
+
+            @Override
+            public Long decode(byte[] bytes) {
+                return ByteBuffer.wrap(bytes).getLong();
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package org.acarrasco.collections.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The binary protocol between {@link CacheServer} and {@link RemoteCache}.
+ *
+ * A request is an operation code and a request id followed by its arguments,
+ * and a response is the id of its request and a status code followed by its
+ * results. A blob is encoded as its length and its bytes, with a length of -1
+ * for null. Requests are answered as soon as they are done, not in the order
+ * they were sent, so a slow request doesn't delay the ones pipelined behind
+ * it.
+ *
+ * - GET key: OK value
+ * - PEEK key: OK value | NOT_FOUND
+ * - INVALIDATE key: OK boolean
+ * - MULTI_GET count key...: OK count value...
+ * - MAXIMUM_SIZE: OK size
+ * - SET_MAXIMUM_SIZE size: OK
+ *
+ * Any request can also be answered with ERROR message.
+ */
+final class Protocol {
+
+    static final byte GET = 1;
+    static final byte PEEK = 2;
+    static final byte INVALIDATE = 3;
+    static final byte MULTI_GET = 4;
+    static final byte MAXIMUM_SIZE = 5;
+    static final byte SET_MAXIMUM_SIZE = 6;
+
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte ERROR = 2;
+
+    /**
+     * The longest blob accepted, so a corrupted length can't exhaust the
+     * memory.
+     */
+    static final int MAX_BLOB_LENGTH = 64 * 1024 * 1024;
+
+    private Protocol() {
+    }
+
+    static void writeBlob(DataOutputStream out, byte[] blob) throws IOException {
+        if (blob == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(blob.length);
+            out.write(blob);
+        }
+    }
+
+    static byte[] readBlob(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_BLOB_LENGTH) {
+            throw new IOException("Invalid blob length " + length);
+        }
+        final byte[] blob = new byte[length];
+        in.readFully(blob);
+        return blob;
+    }
+}
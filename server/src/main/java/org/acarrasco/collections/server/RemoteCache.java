@@ -0,0 +1,294 @@
+package org.acarrasco.collections.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.acarrasco.collections.CacheEventListener;
+import org.acarrasco.collections.Entry;
+import org.acarrasco.collections.ReadThroughCache;
+
+/**
+ * A client of a {@link CacheServer}, usually used as the missing value
+ * factory of a local cache.
+ *
+ * A single connection is shared by all the threads. Requests are written as
+ * soon as they are made, without waiting for the previous responses, and a
+ * reader thread completes them by id as the responses arrive, in whatever
+ * order the server finishes them.
+ *
+ * The cache contents live in the server, so iterating over this cache yields
+ * nothing, its maximum size is the one of the cache of the server, and it
+ * has no events of its own.
+ */
+public class RemoteCache<K, V> implements ReadThroughCache<K, V>, AutoCloseable {
+
+    /**
+     * A request that has been sent and is waiting for its response.
+     */
+    private static class Pending {
+        final byte operation;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Pending(byte operation) {
+            this.operation = operation;
+        }
+    }
+
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Guards the output stream and the request ids.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private int nextId;
+
+    private final ConcurrentHashMap<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    private final Thread reader;
+
+    private volatile IOException failure;
+
+    public RemoteCache(InetSocketAddress address, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        this.reader = Thread.ofVirtual().name("remote-cache-reader").start(this::readResponses);
+    }
+
+    @Override
+    public V apply(K key) {
+        return join(applyAsync(key));
+    }
+
+    /**
+     * Requests a value without waiting for the response, so a single thread
+     * can pipeline many requests.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<V> applyAsync(K key) {
+        final byte[] encodedKey = this.keyCodec.encode(key);
+        return send(Protocol.GET, (out) -> Protocol.writeBlob(out, encodedKey)).thenApply((value) -> (V) value);
+    }
+
+    /**
+     * Requests several values in a single round trip.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getAll(List<K> keys) {
+        final List<byte[]> encodedKeys = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            encodedKeys.add(this.keyCodec.encode(key));
+        }
+        return (List<V>) join(send(Protocol.MULTI_GET, (out) -> {
+            out.writeInt(encodedKeys.size());
+            for (byte[] key : encodedKeys) {
+                Protocol.writeBlob(out, key);
+            }
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getIfPresent(K key) {
+        final byte[] encodedKey = this.keyCodec.encode(key);
+        return (V) join(send(Protocol.PEEK, (out) -> Protocol.writeBlob(out, encodedKey)));
+    }
+
+    @Override
+    public boolean invalidate(K key) {
+        final byte[] encodedKey = this.keyCodec.encode(key);
+        return (Boolean) join(send(Protocol.INVALIDATE, (out) -> Protocol.writeBlob(out, encodedKey)));
+    }
+
+    /**
+     * Not supported: the loads, evictions and invalidations happen in the
+     * server, and a client can't tell a load from a hit, nor see the values
+     * it invalidates. Set the listener on the cache of the server instead.
+     */
+    @Override
+    public void setEventListener(CacheEventListener<K, V> listener) {
+        throw new UnsupportedOperationException("The events of a remote cache happen in the server");
+    }
+
+    @Override
+    public int maximumSize() {
+        return (Integer) join(send(Protocol.MAXIMUM_SIZE, (out) -> {
+        }));
+    }
+
+    /**
+     * Resizes the cache of the server, which is shared by all its clients.
+     */
+    @Override
+    public void setMaximumSize(int maximumSize) {
+        join(send(Protocol.SET_MAXIMUM_SIZE, (out) -> out.writeInt(maximumSize)));
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+        try {
+            this.reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface RequestWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private CompletableFuture<Object> send(byte operation, RequestWriter arguments) {
+        final Pending request = new Pending(operation);
+        this.writeLock.lock();
+        try {
+            if (this.failure != null) {
+                throw new UncheckedIOException(this.failure);
+            }
+            final int id = this.nextId++;
+            // registered first, the response could arrive before flush returns
+            this.pending.put(id, request);
+            this.out.writeByte(operation);
+            this.out.writeInt(id);
+            arguments.write(this.out);
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.writeLock.unlock();
+        }
+        return request.result;
+    }
+
+    private void readResponses() {
+        try {
+            while (true) {
+                final int id = this.in.readInt();
+                final byte status = this.in.readByte();
+                final Pending request = this.pending.remove(id);
+                if (request == null) {
+                    throw new IOException("Unexpected response from the server");
+                }
+                if (status == Protocol.ERROR) {
+                    request.result.completeExceptionally(new RemoteCacheException(this.in.readUTF()));
+                } else if (status == Protocol.NOT_FOUND) {
+                    request.result.complete(null);
+                } else {
+                    // read whole before decoding, so a codec failure only
+                    // fails this request and leaves the stream in sync
+                    final Object result = readResult(request.operation);
+                    try {
+                        request.result.complete(decodeResult(request.operation, result));
+                    } catch (RuntimeException e) {
+                        request.result.completeExceptionally(
+                                new RemoteCacheException("Can't decode the response: " + e, e));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            this.writeLock.lock();
+            try {
+                this.failure = e;
+            } finally {
+                this.writeLock.unlock();
+            }
+            // no request can be added after the failure is set
+            for (Pending request : this.pending.values()) {
+                request.result.completeExceptionally(new UncheckedIOException(e));
+            }
+            this.pending.clear();
+        }
+    }
+
+    /**
+     * Reads the results of a response, with the values as raw blobs.
+     */
+    private Object readResult(byte operation) throws IOException {
+        switch (operation) {
+            case Protocol.GET:
+            case Protocol.PEEK:
+                return Protocol.readBlob(this.in);
+            case Protocol.INVALIDATE:
+                return this.in.readBoolean();
+            case Protocol.MAXIMUM_SIZE:
+                return this.in.readInt();
+            case Protocol.SET_MAXIMUM_SIZE:
+                return null;
+            case Protocol.MULTI_GET: {
+                final int count = this.in.readInt();
+                if (count < 0) {
+                    throw new IOException("Invalid value count " + count);
+                }
+                final List<byte[]> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(Protocol.readBlob(this.in));
+                }
+                return values;
+            }
+            default:
+                throw new IOException("Unknown operation " + operation);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object decodeResult(byte operation, Object result) {
+        switch (operation) {
+            case Protocol.GET:
+            case Protocol.PEEK:
+                return decode((byte[]) result);
+            case Protocol.MULTI_GET: {
+                final List<byte[]> blobs = (List<byte[]>) result;
+                final List<V> values = new ArrayList<>(blobs.size());
+                for (byte[] blob : blobs) {
+                    values.add(decode(blob));
+                }
+                return values;
+            }
+            default:
+                return result;
+        }
+    }
+
+    private V decode(byte[] bytes) {
+        return bytes == null ? null : this.valueCodec.decode(bytes);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.acarrasco.collections.server;
+
+/**
+ * A request failed on the server, usually because the missing value factory
+ * threw an exception, or its response couldn't be decoded.
+ */
+public class RemoteCacheException extends RuntimeException {
+
+    public RemoteCacheException(String message) {
+        super(message);
+    }
+
+    public RemoteCacheException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
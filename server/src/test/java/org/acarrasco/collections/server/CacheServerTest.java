@@ -0,0 +1,197 @@
+package org.acarrasco.collections.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.acarrasco.collections.CacheEventListener;
+import org.acarrasco.collections.LockFreeLRUCache;
+import org.acarrasco.collections.MappedCache;
+import org.acarrasco.collections.SynchronizedLRUCache;
+
+public class CacheServerTest {
+
+    static final int SLOW_KEY = 1000;
+
+    final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * Lets the load of the slow key finish.
+     */
+    final CountDownLatch release = new CountDownLatch(1);
+
+    MappedCache<Integer, String> cache;
+
+    CacheServer<Integer, String> startServer() throws IOException {
+        cache = new MappedCache<>(4, 64, (x) -> {
+            if (x < 0) {
+                throw new IllegalArgumentException("negative key " + x);
+            }
+            if (x == SLOW_KEY) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            loads.incrementAndGet();
+            return "value" + x;
+        }, SynchronizedLRUCache::new);
+        return new CacheServer<>(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), cache,
+                Codec.integers(), Codec.utf8());
+    }
+
+    @Test public void testGetPeekAndInvalidate() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<Integer, String> client = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8())) {
+            assertNull(client.getIfPresent(1));
+            assertEquals("value1", client.apply(1));
+            assertEquals("value1", client.getIfPresent(1));
+            assertTrue(client.invalidate(1));
+            assertFalse(client.invalidate(1));
+            assertNull(client.getIfPresent(1));
+            assertEquals(1, loads.get());
+        }
+    }
+
+    @Test public void testClientsShareTheCache() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<Integer, String> first = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8());
+                RemoteCache<Integer, String> second = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8())) {
+            // the remote caches are the missing value factories of the local caches
+            final LockFreeLRUCache<Integer, String> firstLocal = new LockFreeLRUCache<>(4, first);
+            final LockFreeLRUCache<Integer, String> secondLocal = new LockFreeLRUCache<>(4, second);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("value" + i, firstLocal.apply(i));
+                assertEquals("value" + i, secondLocal.apply(i));
+            }
+            assertEquals(10, loads.get());
+        }
+    }
+
+    @Test public void testPipeliningAndMultiGet() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<Integer, String> client = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8())) {
+            final List<CompletableFuture<String>> futures = new ArrayList<>();
+            final List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(client.applyAsync(i % 100));
+                keys.add(i % 100);
+            }
+            final List<String> values = client.getAll(keys);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("value" + (i % 100), futures.get(i).join());
+                assertEquals("value" + (i % 100), values.get(i));
+            }
+        }
+    }
+
+    @Test public void testErrorsDoNotBreakTheConnection() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<Integer, String> client = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8())) {
+            final RemoteCacheException error = assertThrows(RemoteCacheException.class, () -> client.apply(-1));
+            assertTrue(error.getMessage().contains("negative key -1"));
+            assertEquals("value2", client.apply(2));
+        }
+    }
+
+    @Test public void testMaximumSize() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<Integer, String> client = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8())) {
+            assertEquals(cache.maximumSize(), client.maximumSize());
+            client.setMaximumSize(8);
+            assertEquals(8, cache.maximumSize());
+            assertEquals(8, client.maximumSize());
+            // the events happen in the server
+            assertThrows(UnsupportedOperationException.class,
+                    () -> client.setEventListener(CacheEventListener.none()));
+        }
+    }
+
+    @Test public void testSlowRequestsDoNotDelayTheOthers() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<Integer, String> client = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.utf8())) {
+            assertEquals("value1", client.apply(1));
+            final CompletableFuture<String> slow = client.applyAsync(SLOW_KEY);
+            // sent after the slow key on the same connection, answered before it
+            assertEquals("value1", client.apply(1));
+            assertEquals("value2", client.applyAsync(2).join());
+            assertFalse(slow.isDone());
+            release.countDown();
+            assertEquals("value" + SLOW_KEY, slow.join());
+        }
+    }
+
+    @Test public void testUndecodableKeysDoNotBreakTheConnection() throws IOException {
+        // sends the keys as they are, so some of them can't be decoded
+        final Codec<byte[]> raw = new Codec<>() {
+            @Override
+            public byte[] encode(byte[] value) {
+                return value;
+            }
+
+            @Override
+            public byte[] decode(byte[] bytes) {
+                return bytes;
+            }
+        };
+        try (CacheServer<Integer, String> server = startServer();
+                RemoteCache<byte[], String> client = new RemoteCache<>(server.address(), raw, Codec.utf8())) {
+            final List<byte[]> keys = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                keys.add(i == 2 ? new byte[2] : ByteBuffer.allocate(4).putInt(i).array());
+            }
+            assertThrows(RemoteCacheException.class, () -> client.getAll(keys));
+            assertEquals("value3", client.apply(ByteBuffer.allocate(4).putInt(3).array()));
+        }
+    }
+
+    @Test public void testUndecodableValuesDoNotBreakTheConnection() throws IOException {
+        // the values are two byte strings, too short for the integer codec of the client
+        final SynchronizedLRUCache<Integer, String> shortValues = new SynchronizedLRUCache<>(16, (x) -> "v" + x);
+        try (CacheServer<Integer, String> server = new CacheServer<>(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), shortValues, Codec.integers(),
+                Codec.utf8());
+                RemoteCache<Integer, Integer> client = new RemoteCache<>(server.address(), Codec.integers(),
+                        Codec.integers())) {
+            assertThrows(RemoteCacheException.class, () -> client.apply(1));
+            final CompletableFuture<Integer> pipelined = client.applyAsync(2);
+            assertThrows(RemoteCacheException.class, () -> client.getAll(List.of(3, 4)));
+            assertThrows(CompletionException.class, pipelined::join);
+            assertTrue(client.invalidate(1));
+            assertNull(client.getIfPresent(5));
+        }
+    }
+
+    @Test public void testMalformedRequestsCloseTheConnection() throws IOException {
+        try (CacheServer<Integer, String> server = startServer();
+                Socket socket = new Socket(server.address().getAddress(), server.address().getPort())) {
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(Protocol.MULTI_GET);
+            out.writeInt(0);
+            out.writeInt(-1);
+            out.flush();
+            assertEquals(-1, new DataInputStream(socket.getInputStream()).read());
+        }
+    }
+}
@@ -12,3 +12,5 @@ plugins {
 
 rootProject.name = "cache-experiments"
 include("lib")
+include("server")
+include("stress")
@@ -0,0 +1,28 @@
+/*
+ * Randomized stress tests that check the invariants of the caches under
+ * heavy contention. Run them with `./gradlew :stress:run`.
+ */
+
+plugins {
+    application
+}
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    implementation(project(":lib"))
+
+    testImplementation(libs.junit)
+}
+
+application {
+    mainClass = "org.acarrasco.collections.stress.StressHarness"
+}
+
+java {
+    toolchain {
+        languageVersion = JavaLanguageVersion.of(21)
+    }
+}
@@ -0,0 +1,453 @@
+package org.acarrasco.collections.stress;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import org.acarrasco.collections.CacheEventListener;
+import org.acarrasco.collections.CompactLRUCache;
+import org.acarrasco.collections.Entry;
+import org.acarrasco.collections.ExpiringCache;
+import org.acarrasco.collections.InstrumentedCache;
+import org.acarrasco.collections.LockFreeLRUCache;
+import org.acarrasco.collections.MappedCache;
+import org.acarrasco.collections.ReadThroughCache;
+import org.acarrasco.collections.ReadThroughCacheFactory;
+import org.acarrasco.collections.ReuseDistanceSampler;
+import org.acarrasco.collections.SynchronizedLRUCache;
+import org.acarrasco.collections.TieredCache;
+
+/**
+ * Hammers a cache from many threads with a random mix of reads and
+ * invalidations, and checks that:
+ *
+ * - the missing value factory is never running twice at the same time for the
+ *   same key, and when everything fits in the cache it runs once per key;
+ * - a value is never returned for another key, or after it has been evicted or
+ *   invalidated;
+ * - no entry is lost when everything fits in the cache;
+ * - the capacity is never exceeded, even while it is being changed.
+ *
+ * The values carry a version, taken from a global clock when the factory
+ * returns. After an invalidation returns, no read that starts later may
+ * return a version older than the clock when the invalidation started. In
+ * single level caches the same holds for the versions reported by eviction
+ * events. The levels of a tiered cache are evicted independently, so there
+ * only invalidations are checked.
+ *
+ * Interleavings are not enumerated as in jcstress: the factory yields and
+ * spins randomly, and the key space is small, so the slow paths are reached
+ * very often.
+ */
+public class StressHarness {
+
+    static final class Value {
+        final int key;
+        final long version;
+
+        Value(int key, long version) {
+            this.key = key;
+            this.version = version;
+        }
+
+        public String toString() {
+            return key + "@" + version;
+        }
+    }
+
+    /**
+     * A cache implementation to test.
+     */
+    public static class Implementation {
+        final String name;
+        final ReadThroughCacheFactory cacheFactory;
+
+        /**
+         * Whether the events report every entry that leaves the cache.
+         */
+        final boolean singleLevel;
+
+        /**
+         * The entries that can be held on top of the requested capacity, such
+         * as the ones in the near caches of a tiered cache.
+         */
+        final int extraCapacity;
+
+        public Implementation(String name, ReadThroughCacheFactory cacheFactory, boolean singleLevel,
+                int extraCapacity) {
+            this.name = name;
+            this.cacheFactory = cacheFactory;
+            this.singleLevel = singleLevel;
+            this.extraCapacity = extraCapacity;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * The shape of the load a cache is tested with.
+     */
+    public static class Scenario {
+        final String name;
+        final int threads;
+        final int capacity;
+        final int keySpace;
+        final int operationsPerThread;
+        final int invalidationPercent;
+
+        /**
+         * Whether the maximum size is halved and restored while the other
+         * threads use the cache, and the number of buckets of a MappedCache.
+         */
+        final boolean resizing;
+
+        public Scenario(String name, int threads, int capacity, int keySpace, int operationsPerThread,
+                int invalidationPercent, boolean resizing) {
+            this.name = name;
+            this.threads = threads;
+            this.capacity = capacity;
+            this.keySpace = keySpace;
+            this.operationsPerThread = operationsPerThread;
+            this.invalidationPercent = invalidationPercent;
+            this.resizing = resizing;
+        }
+
+        /**
+         * Every key fits in the cache and nothing is invalidated, so every key
+         * must be loaded exactly once and stay in the cache.
+         */
+        public static Scenario fitting(int threads, int operationsPerThread) {
+            return new Scenario("fitting", threads, 256, 256, operationsPerThread, 0, false);
+        }
+
+        /**
+         * Few slots for many keys, with invalidations, so entries are
+         * constantly evicted and removed while being read.
+         */
+        public static Scenario evicting(int threads, int operationsPerThread) {
+            return new Scenario("evicting", threads, 16, 64, operationsPerThread, 5, false);
+        }
+
+        /**
+         * Like `evicting`, while the observer thread keeps shrinking and growing
+         * the cache, and changing the number of buckets of a mapped cache.
+         */
+        public static Scenario resizing(int threads, int operationsPerThread) {
+            return new Scenario("resizing", threads, 16, 64, operationsPerThread, 5, true);
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Scenario scenario;
+
+    private final boolean singleLevel;
+
+    private final int capacity;
+
+    /**
+     * The most entries the events can account for at once.
+     */
+    private final int residentCapacity;
+
+    private final ReadThroughCache<Integer, Value> cache;
+
+    private final ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * The keys whose value is being computed by the factory.
+     */
+    private final AtomicIntegerArray inFlight;
+
+    private final AtomicIntegerArray loads;
+
+    /**
+     * The highest version of each key that has been evicted.
+     */
+    private final AtomicLongArray evicted;
+
+    /**
+     * The clock when the last completed invalidation of each key started.
+     */
+    private final AtomicLongArray invalidated;
+
+    /**
+     * The number of entries in the cache, according to the events.
+     */
+    private final AtomicInteger resident = new AtomicInteger();
+
+    private final AtomicInteger maxResident = new AtomicInteger();
+
+    public StressHarness(Implementation implementation, Scenario scenario) {
+        this.scenario = scenario;
+        this.singleLevel = implementation.singleLevel;
+        this.capacity = scenario.capacity + implementation.extraCapacity;
+        this.inFlight = new AtomicIntegerArray(scenario.keySpace);
+        this.loads = new AtomicIntegerArray(scenario.keySpace);
+        this.evicted = new AtomicLongArray(scenario.keySpace);
+        this.invalidated = new AtomicLongArray(scenario.keySpace);
+        this.cache = implementation.cacheFactory.build(scenario.capacity, this::load);
+        // the previous buckets of a mapped cache keep their entries while they are moved
+        this.residentCapacity = scenario.resizing && this.cache instanceof MappedCache ? 2 * scenario.capacity
+                : scenario.capacity;
+        this.cache.setEventListener(new CacheEventListener<>() {
+            @Override
+            public void onLoad(Integer key, Value value) {
+                final int size = resident.incrementAndGet();
+                maxResident.accumulateAndGet(size, Math::max);
+            }
+
+            @Override
+            public void onEviction(Integer key, Value value) {
+                removed(key, value);
+            }
+
+            @Override
+            public void onInvalidation(Integer key, Value value) {
+                removed(key, value);
+            }
+        });
+    }
+
+    /**
+     * Runs the scenario and returns the violations found.
+     */
+    public List<String> run(long seed) {
+        final Thread[] threads = new Thread[this.scenario.threads];
+        for (int i = 0; i < threads.length; i++) {
+            final long threadSeed = seed * 31 + i;
+            final boolean observer = i == 0;
+            threads[i] = new Thread(() -> work(new Random(threadSeed), observer));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        checkFinalState();
+        return new ArrayList<>(this.violations);
+    }
+
+    private Value load(Integer key) {
+        if (!this.inFlight.compareAndSet(key, 0, 1)) {
+            violation("the value of " + key + " is being computed twice at the same time");
+        }
+        this.loads.incrementAndGet(key);
+        jitter();
+        final Value value = new Value(key, this.clock.incrementAndGet());
+        this.inFlight.set(key, 0);
+        return value;
+    }
+
+    private void removed(Integer key, Value value) {
+        if (value == null || value.key != key) {
+            violation("removed " + value + " as the value of " + key);
+            return;
+        }
+        this.resident.decrementAndGet();
+        this.evicted.accumulateAndGet(key, value.version, Math::max);
+    }
+
+    private void work(Random random, boolean observer) {
+        for (int i = 0; i < this.scenario.operationsPerThread; i++) {
+            // half of the accesses go to a few hot keys, to make them collide
+            final int key = random.nextBoolean() ? random.nextInt(Math.min(4, this.scenario.keySpace))
+                    : random.nextInt(this.scenario.keySpace);
+            if (random.nextInt(100) < this.scenario.invalidationPercent) {
+                final long start = this.clock.get();
+                this.cache.invalidate(key);
+                this.invalidated.accumulateAndGet(key, start, Math::max);
+                continue;
+            }
+            final long evictedBefore = this.singleLevel ? this.evicted.get(key) : 0;
+            final long invalidatedBefore = this.invalidated.get(key);
+            final Value value = this.cache.apply(key);
+            if (value == null || value.key != key) {
+                violation("read " + value + " as the value of " + key);
+            } else if (value.version <= evictedBefore) {
+                violation("read " + value + " after version " + evictedBefore + " was evicted");
+            } else if (value.version <= invalidatedBefore) {
+                violation("read " + value + " after versions up to " + invalidatedBefore + " were invalidated");
+            }
+            if (observer && i % 256 == 0) {
+                checkSnapshot(false);
+            }
+            if (observer && this.scenario.resizing && i % 512 == 0) {
+                this.cache.setMaximumSize(i % 1024 == 0 ? this.scenario.capacity / 2 : this.scenario.capacity);
+            }
+            if (observer && this.scenario.resizing && i % 512 == 256 && this.cache instanceof MappedCache) {
+                changeBucketCount(this.cache);
+            }
+        }
+    }
+
+    /**
+     * Halves or doubles the number of buckets, keeping the maximum size: the
+     * buckets keep their capacity, so it is lowered before adding buckets
+     * and raised after removing them.
+     */
+    @SuppressWarnings("unchecked")
+    private static void changeBucketCount(ReadThroughCache<Integer, Value> resized) {
+        final MappedCache<Integer, Value> cache = (MappedCache<Integer, Value>) resized;
+        final int maximumSize = cache.maximumSize();
+        if (cache.bucketCount() == 4) {
+            cache.setBucketCount(2);
+            cache.setMaximumSize(maximumSize);
+        } else {
+            cache.setMaximumSize(maximumSize / 2);
+            cache.setBucketCount(4);
+        }
+    }
+
+    /**
+     * Checks the entries seen while iterating, and returns the number of
+     * distinct keys. A tiered cache can hold a key in more than one level.
+     *
+     * Iteration is weakly consistent: while other threads are running, a key
+     * can be seen before it is evicted and the key that replaces it after, so
+     * the capacity is only checked when the cache is quiescent.
+     */
+    private int checkSnapshot(boolean quiescent) {
+        final HashSet<Integer> keys = new HashSet<>();
+        for (Entry<Integer, Value> entry : this.cache) {
+            keys.add(entry.getKey());
+            if (entry.getValue() == null || entry.getValue().key != entry.getKey()) {
+                violation("iterated " + entry.getValue() + " as the value of " + entry.getKey());
+            }
+        }
+        if (quiescent && keys.size() > this.capacity) {
+            violation("iterated " + keys.size() + " keys with a capacity of " + this.capacity);
+        }
+        return keys.size();
+    }
+
+    private void checkFinalState() {
+        final int size = checkSnapshot(true);
+        if (this.maxResident.get() > this.residentCapacity) {
+            violation("held " + this.maxResident.get() + " entries with a capacity of " + this.residentCapacity);
+        }
+        if (this.singleLevel && size != this.resident.get()) {
+            violation("iterated " + size + " keys, but " + this.resident.get() + " were loaded and not removed");
+        }
+        if (this.scenario.keySpace > this.scenario.capacity || this.scenario.invalidationPercent > 0) {
+            return;
+        }
+        for (int key = 0; key < this.scenario.keySpace; key++) {
+            if (this.loads.get(key) > 1) {
+                violation("the value of " + key + " was computed " + this.loads.get(key) + " times");
+            }
+            if (this.loads.get(key) > 0 && this.cache.getIfPresent(key) == null) {
+                violation("the value of " + key + " was lost");
+            }
+        }
+    }
+
+    private void violation(String description) {
+        this.violations.add(description);
+    }
+
+    /**
+     * Gives other threads a chance to run in the middle of a computation.
+     */
+    private static void jitter() {
+        final int choice = (int) (Thread.currentThread().threadId() + System.nanoTime()) & 3;
+        if (choice == 0) {
+            Thread.yield();
+        } else if (choice == 1) {
+            for (int i = 0; i < 100; i++) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Every implementation of ReadThroughCache.
+     */
+    public static List<Implementation> implementations() {
+        final List<Implementation> implementations = new ArrayList<>();
+        implementations.add(new Implementation("lockfree", LockFreeLRUCache::new, true, 0));
+        implementations.add(new Implementation("synchronized", SynchronizedLRUCache::new, true, 0));
+        implementations.add(new Implementation("segmented", SynchronizedLRUCache.segmented(0.8), true, 0));
+        implementations.add(new Implementation("compact", CompactLRUCache::new, true, 0));
+        implementations.add(new Implementation("mapped-lockfree", MappedCache.factory(4, LockFreeLRUCache::new),
+                true, 0));
+        implementations.add(new Implementation("mapped-synchronized",
+                MappedCache.factory(4, SynchronizedLRUCache::new), true, 0));
+        implementations.add(new Implementation("expiring", new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                // nothing expires during a run, the wheel still sees every event
+                return new ExpiringCache<>(capacity, missingValueFactory,
+                        MappedCache.factory(4, LockFreeLRUCache::new), Duration.ofHours(1), Duration.ofHours(1));
+            }
+        }, true, 0));
+        implementations.add(new Implementation("instrumented", new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                return new InstrumentedCache<>(capacity, missingValueFactory, CompactLRUCache::new,
+                        new ReuseDistanceSampler<>(0.5, 1024, 4, 64));
+            }
+        }, true, 0));
+        implementations.add(new Implementation("tiered", new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                return new TieredCache<>(2, 4, capacity, missingValueFactory,
+                        MappedCache.factory(4, SynchronizedLRUCache::new), TieredCache.Mode.INCLUSIVE, 2);
+            }
+        }, false, 2 * 4));
+        implementations.add(new Implementation("tiered-exclusive", new ReadThroughCacheFactory() {
+            @Override
+            public <K, V> ReadThroughCache<K, V> build(int capacity, Function<K, V> missingValueFactory) {
+                return new TieredCache<>(2, 4, capacity, missingValueFactory,
+                        MappedCache.factory(4, SynchronizedLRUCache::new), TieredCache.Mode.EXCLUSIVE, 2);
+            }
+        }, false, 2 * 4));
+        return implementations;
+    }
+
+    /**
+     * Usage: `StressHarness [operations per thread] [seed]`
+     */
+    public static void main(String[] args) {
+        final int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        final int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        System.out.println("seed " + seed + ", " + threads + " threads, " + operations + " operations per thread");
+
+        boolean failed = false;
+        for (Implementation implementation : implementations()) {
+            for (Scenario scenario : new Scenario[] { Scenario.fitting(threads, operations),
+                    Scenario.evicting(threads, operations), Scenario.resizing(threads, operations) }) {
+                final List<String> violations = new StressHarness(implementation, scenario).run(seed);
+                System.out.println(implementation + "\t" + scenario + "\t"
+                        + (violations.isEmpty() ? "OK" : violations.size() + " violations"));
+                for (int i = 0; i < Math.min(10, violations.size()); i++) {
+                    System.out.println("\t" + violations.get(i));
+                }
+                failed |= !violations.isEmpty();
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
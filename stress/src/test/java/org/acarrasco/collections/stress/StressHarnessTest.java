@@ -0,0 +1,28 @@
+package org.acarrasco.collections.stress;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+public class StressHarnessTest {
+
+    static void stress(StressHarness.Scenario scenario) {
+        for (StressHarness.Implementation implementation : StressHarness.implementations()) {
+            final List<String> violations = new StressHarness(implementation, scenario).run(42);
+            assertEquals(implementation + " " + scenario, List.of(), violations);
+        }
+    }
+
+    @Test public void testFitting() {
+        stress(StressHarness.Scenario.fitting(8, 20000));
+    }
+
+    @Test public void testEvicting() {
+        stress(StressHarness.Scenario.evicting(8, 20000));
+    }
+
+    @Test public void testResizing() {
+        stress(StressHarness.Scenario.resizing(8, 20000));
+    }
+}